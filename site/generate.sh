@@ -21,6 +21,7 @@ function generate() {
       -connectionCheckUrl http://www.google.com/ \
       -key $SECRET/update-center.key \
       -certificate $SECRET/update-center.cert \
+      -latest-map latest- \
       "$@"
 }
 
@@ -48,42 +49,19 @@ function sanity-check() {
 # otherwise it'll offer the weekly as update to a running LTS version
 
 
-HTACCESS=htaccess-versions
-echo "# Version-specific rulesets generated by generate.sh" > ${HTACCESS}
-
+# the segments are generated next to ./www2/current by the run that generates the latter, see below.
+# That run also writes the table that routes each ?version= to its segment, see VersionRoutes.
+SEGMENTS=( -routing-map update-center-versions )
 for v in ${BASELINES[@]}; do
     # for mainline up to $v, which advertises the latest core
-    generate -no-experimental -skip-release-history -www ./www2/$v -cap $v.999 -capCore ${CAP_CORE}
-    sanity-check ./www2/$v
+    SEGMENTS+=( -segment $v:$v.999:${CAP_CORE} )
 
     # for LTS
-    generate -no-experimental -skip-release-history -www ./www2/stable-$v -cap $v.999 -capCore ${BASELINES[${#BASELINES[@]}-1]}.999
-    sanity-check ./www2/stable-$v
+    SEGMENTS+=( -segment stable-$v:$v.999:${BASELINES[${#BASELINES[@]}-1]}.999 )
     lastLTS=$v
-
-    # Split our version up into an array for rewriting
-    # 1.651 becomes (1 651)
-    versionPieces=(${v//./ })
-    major=${versionPieces[0]}
-    minor=${versionPieces[1]}
-    cat <<EOF >>$HTACCESS
-
-RewriteCond %{QUERY_STRING} ^.*version=${major}\.(\d+)$ [NC]
-RewriteCond %1 <=${minor}
-RewriteRule ^update\-center\.[json|html]+ /${major}\.${minor}%{REQUEST_URI}? [NC,L,R=301]
-EOF
-
 done
 
 
-# Add a RewriteRule for the last LTS we have, which should always rewrite to
-# /stable
-cat <<EOF >>$HTACCESS
-
-RewriteRule ^stable/(.+) "/stable-${lastLTS}/\$1" [NC,L,R=301]
-EOF
-
-
 # On generating http://mirrors.jenkins-ci.org/plugins layout
 #     this directory that hosts actual bits need to be generated by combining both experimental content and current content,
 #     with symlinks pointing to the 'latest' current versions. So we generate exprimental first, then overwrite current to produce proper symlinks
@@ -94,7 +72,11 @@ generate -skip-release-history -capCore ${CAP_CORE} -www ./www2/experimental -do
 # for the latest without any cap
 # also use this to generae https://updates.jenkins-ci.org/download layout, since this generator run
 # will capture every plugin and every core
-generate -no-experimental -capCore ${CAP_CORE} -www ./www2/current -www-download ./www2/download -download ./download -pluginCount.txt ./www2/pluginCount.txt
+generate -no-experimental -capCore ${CAP_CORE} -www ./www2/current -www-download ./www2/download -download ./download -pluginCount.txt ./www2/pluginCount.txt "${SEGMENTS[@]}"
+for v in ${BASELINES[@]}; do
+    sanity-check ./www2/$v
+    sanity-check ./www2/stable-$v
+done
 
 # generate symlinks to retain compatibility with past layout and make Apache index useful
 pushd www2
@@ -106,9 +88,13 @@ pushd www2
     # copy other static resource files
     rsync -avz "../site/static/" ./
 
-    # Rewrite our generated .htaccess containing our version rules
+    # Rewrite our generated .htaccess containing our version rules,
+    # and a RewriteRule for the last LTS we have, which should always rewrite to /stable
     htaccess=$(<.htaccess)
-    generated=$(<../${HTACCESS})
+    generated="$(<update-center-versions.htaccess)
+
+RewriteRule ^stable/(.+) \"/stable-${lastLTS}/\$1\" [NC,L,R=301]"
+    rm update-center-versions.htaccess
     echo "${htaccess//##LEGACY_UPDATECENTERS_TOKEN##/$generated}" > .htaccess
 popd
 
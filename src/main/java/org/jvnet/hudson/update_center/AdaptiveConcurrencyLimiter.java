@@ -0,0 +1,229 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Bounds the number of concurrent requests to a remote host, and adapts that bound
+ * to how the host is behaving (AIMD: additive increase, multiplicative decrease.)
+ *
+ * <p>
+ * The limit grows by one for every {@code limit} successful requests as long as latencies stay flat,
+ * meaning the short-term average latency doesn't drift away from the long-term average.
+ * A timeout, a 429 or a 5xx halves the limit.
+ *
+ * <p>
+ * Instances are shared per host, so that everything talking to the same server
+ * (artifact resolution, wiki fetches, ...) draws from the same budget.
+ */
+public final class AdaptiveConcurrencyLimiter {
+    private final String host;
+    private final int minLimit;
+    private final int maxLimit;
+    private final Clock clock;
+
+    private double limit;
+    private int inFlight;
+
+    /**
+     * Exponentially weighted moving averages of the request latency in milliseconds.
+     * The short one reacts within a few requests, the long one is the baseline we compare against.
+     */
+    private double shortLatency = -1, longLatency = -1;
+
+    private long successes, overloads;
+
+    AdaptiveConcurrencyLimiter(String host, int initialLimit, int minLimit, int maxLimit) {
+        this(host, initialLimit, minLimit, maxLimit, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock
+     *      What request latencies are measured with.
+     */
+    AdaptiveConcurrencyLimiter(String host, int initialLimit, int minLimit, int maxLimit, Clock clock) {
+        this.host = host;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.clock = clock;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Obtains the limiter shared by everyone talking to the given host.
+     */
+    public static AdaptiveConcurrencyLimiter forHost(String host) {
+        synchronized (LIMITERS) {
+            AdaptiveConcurrencyLimiter l = LIMITERS.get(host);
+            if (l==null)
+                LIMITERS.put(host, l=new AdaptiveConcurrencyLimiter(host, INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT));
+            return l;
+        }
+    }
+
+    /**
+     * Prints the current limit and the observed latency of every host contacted so far.
+     */
+    public static void report(PrintStream out) {
+        synchronized (LIMITERS) {
+            for (AdaptiveConcurrencyLimiter l : LIMITERS.values())
+                out.println(l);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Current concurrency limit.
+     */
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    /**
+     * Blocks until a slot is available.
+     *
+     * @return
+     *      The permit, which must be released by one of its methods once the request is over.
+     */
+    public Permit acquire() throws InterruptedIOException {
+        synchronized (this) {
+            try {
+                while (inFlight >= (int)limit)
+                    wait();
+            } catch (InterruptedException e) {
+                throw (InterruptedIOException)new InterruptedIOException("Interrupted while waiting for "+host).initCause(e);
+            }
+            inFlight++;
+        }
+        return new Permit();
+    }
+
+    private synchronized void release(long start, Outcome outcome) {
+        inFlight--;
+
+        long ms = Math.max(0, clock.millis()-start);    // the wall clock may be set back
+        int before = (int)limit;
+        switch (outcome) {
+        case SUCCESS:
+            successes++;
+            boolean flat = longLatency<0 || shortLatency <= longLatency*LATENCY_TOLERANCE;
+            shortLatency = shortLatency<0 ? ms : shortLatency*0.8 + ms*0.2;
+            longLatency  = longLatency<0  ? ms : longLatency*0.98 + ms*0.02;
+            if (flat)
+                limit = Math.min(maxLimit, limit + 1/limit);
+            break;
+        case OVERLOADED:
+            overloads++;
+            limit = Math.max(minLimit, limit/2);
+            break;
+        case NEUTRAL:
+            break;
+        }
+
+        int after = (int)limit;
+        if (after!=before)
+            System.out.println(String.format("=> [%s] concurrency limit %d -> %d (latency %dms, baseline %dms)",
+                    host, before, after, Math.round(shortLatency), Math.round(longLatency)));
+        notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("[%s] concurrency limit %d, latency %dms, baseline %dms, %d requests, %d overloads",
+                host, (int)limit, Math.round(shortLatency), Math.round(longLatency), successes+overloads, overloads);
+    }
+
+    /**
+     * Does this exception indicate that the remote side is overloaded? i.e. a timeout, a 429 or a 5xx.
+     */
+    public static boolean isOverload(Throwable t) {
+        for (; t!=null; t=t.getCause()) {
+            if (t instanceof SocketTimeoutException)
+                return true;
+            if (t.getMessage()!=null && OVERLOAD_STATUS.matcher(t.getMessage()).find())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Does this HTTP status code indicate that the remote side is overloaded?
+     */
+    public static boolean isOverload(int statusCode) {
+        return statusCode==429 || statusCode>=500;
+    }
+
+    private enum Outcome { SUCCESS, OVERLOADED, NEUTRAL }
+
+    /**
+     * A slot obtained from {@link AdaptiveConcurrencyLimiter#acquire()}.
+     * Only the first call to any of its methods counts, so it's safe to call {@link #release()} from a finally block.
+     */
+    public final class Permit {
+        private final long start = clock.millis();
+        private boolean released;
+
+        /**
+         * The request completed normally.
+         */
+        public void success() {
+            done(Outcome.SUCCESS);
+        }
+
+        /**
+         * The request failed in a way that indicates that the remote side is overloaded.
+         */
+        public void overloaded() {
+            done(Outcome.OVERLOADED);
+        }
+
+        /**
+         * The request failed for a reason unrelated to the load, or was abandoned.
+         */
+        public void release() {
+            done(Outcome.NEUTRAL);
+        }
+
+        /**
+         * Reports a failure, classifying it with {@link AdaptiveConcurrencyLimiter#isOverload(Throwable)}.
+         */
+        public void failed(Throwable t) {
+            done(isOverload(t) ? Outcome.OVERLOADED : Outcome.NEUTRAL);
+        }
+
+        private void done(Outcome o) {
+            synchronized (this) {
+                if (released)   return;
+                released = true;
+            }
+            AdaptiveConcurrencyLimiter.this.release(start, o);
+        }
+    }
+
+    private static final Map<String,AdaptiveConcurrencyLimiter> LIMITERS = new TreeMap<String,AdaptiveConcurrencyLimiter>();
+
+    /**
+     * Status codes as they appear in the messages of failures, i.e. "... Return code is: 503" from Wagon,
+     * "Server returned HTTP response code: 503 for URL: ..." from {@link java.net.HttpURLConnection},
+     * and "(503)Service Unavailable" from Axis, which starts the message with it.
+     */
+    private static final Pattern OVERLOAD_STATUS = Pattern.compile(
+            "(?:return code is:|response code:)\\s*(?:429|5\\d\\d)\\b|^\\((?:429|5\\d\\d)\\)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * How much the short-term latency may exceed the long-term latency before we stop raising the limit.
+     */
+    private static final double LATENCY_TOLERANCE = 1.5;
+
+    private static final int INITIAL_LIMIT = Integer.getInteger(AdaptiveConcurrencyLimiter.class.getName()+".initial", 4);
+    private static final int MIN_LIMIT = Integer.getInteger(AdaptiveConcurrencyLimiter.class.getName()+".min", 1);
+    static final int MAX_LIMIT = Integer.getInteger(AdaptiveConcurrencyLimiter.class.getName()+".max", 32);
+}
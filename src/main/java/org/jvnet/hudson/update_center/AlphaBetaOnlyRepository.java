@@ -4,18 +4,18 @@ import hudson.util.VersionNumber;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
 import org.codehaus.plexus.PlexusContainerException;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
-import org.sonatype.nexus.index.ArtifactInfo;
 import org.sonatype.nexus.index.context.UnsupportedExistingLuceneIndexException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 
 /**
  * Filter down to alpha/beta releases of plugins (or the negation of it.)
@@ -43,26 +43,25 @@ public class AlphaBetaOnlyRepository extends MavenRepository {
     }
 
     @Override
-    public Collection<PluginHistory> listHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
-        Collection<PluginHistory> r = base.listHudsonPlugins();
-        for (Iterator<PluginHistory> jtr = r.iterator(); jtr.hasNext();) {
-            PluginHistory h = jtr.next();
-
-            for (Iterator<Entry<VersionNumber, HPI>> itr = h.artifacts.entrySet().iterator(); itr.hasNext();) {
-                Entry<VersionNumber, HPI> e =  itr.next();
-                if (isAlphaOrBeta(e.getValue())^negative)
-                    continue;
-                itr.remove();
-            }
-
-            if (h.artifacts.isEmpty())
-                jtr.remove();
+    protected Collection<PluginHistory> scanHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        List<PluginHistory> r = new ArrayList<PluginHistory>();
+        for (PluginHistory h : base.listHudsonPlugins()) {
+            h = h.filter(new Predicate<HPI>() {
+                public boolean test(HPI v) {
+                    return isExperimental(v)^negative;
+                }
+            });
+            if (h!=null)
+                r.add(h);
         }
 
         return r;
     }
 
-    private boolean isAlphaOrBeta(HPI v) {
+    /**
+     * Is this an alpha/beta release, for the purpose of the experimental update center?
+     */
+    static boolean isExperimental(HPI v) {
         if (HISTORICALLY_BETA_ONLY.contains(v.artifact.artifactId))
             return false;
         return v.isAlphaOrBeta();
@@ -70,7 +69,7 @@ public class AlphaBetaOnlyRepository extends MavenRepository {
 
 
     @Override
-    public File resolve(ArtifactInfo a, String type, String classifier) throws AbstractArtifactResolutionException {
+    public File resolve(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException {
         return base.resolve(a, type, classifier);
     }
 
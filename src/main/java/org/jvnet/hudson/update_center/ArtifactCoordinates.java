@@ -0,0 +1,64 @@
+package org.jvnet.hudson.update_center;
+
+import org.sonatype.nexus.index.ArtifactInfo;
+
+/**
+ * The part of a Maven index entry that the generator actually uses.
+ *
+ * <p>
+ * We keep one of these for every version of every plugin, so rather than holding on to
+ * nexus' {@link ArtifactInfo} and its dozens of fields, we copy out the coordinates.
+ * The strings are interned, as the same group IDs, packagings and versions occur thousands of times.
+ */
+public final class ArtifactCoordinates {
+    public final String groupId;
+    public final String artifactId;
+    public final String version;
+    public final String packaging;
+    /**
+     * Null for the main artifact.
+     */
+    public final String classifier;
+
+    public ArtifactCoordinates(String groupId, String artifactId, String version, String packaging, String classifier) {
+        this.groupId = intern(groupId);
+        this.artifactId = intern(artifactId);
+        this.version = intern(version);
+        this.packaging = intern(packaging);
+        this.classifier = intern(classifier);
+    }
+
+    public static ArtifactCoordinates of(ArtifactInfo a) {
+        return new ArtifactCoordinates(a.groupId, a.artifactId, a.version, a.packaging, a.classifier);
+    }
+
+    private static String intern(String s) {
+        return s==null ? null : s.intern();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this==o)    return true;
+        if (!(o instanceof ArtifactCoordinates))    return false;
+        ArtifactCoordinates that = (ArtifactCoordinates) o;
+        // interned, so identity comparison is enough
+        return groupId==that.groupId && artifactId==that.artifactId && version==that.version
+            && packaging==that.packaging && classifier==that.classifier;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = groupId.hashCode();
+        h = h*31 + artifactId.hashCode();
+        h = h*31 + version.hashCode();
+        return h;
+    }
+
+    /**
+     * Same format as {@link ArtifactInfo#toString()}, so that log messages look the same as they used to.
+     */
+    @Override
+    public String toString() {
+        return groupId+':'+artifactId+':'+version+':'+classifier+':'+packaging;
+    }
+}
@@ -0,0 +1,288 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The catalog as enriched by a run: every plugin history and core release with what we read from
+ * their manifests, their digests, the POM facts and the wiki pages.
+ *
+ * <p>
+ * A run with {@code -snapshot} writes this at the end, and a run with {@code -from-snapshot}
+ * renders from it without the Maven index, the repository or the wiki. Only what the writing run
+ * actually resolved is in there, so e.g. a segment that offers an older core than any segment of
+ * the writing run won't find the digest of that war.
+ *
+ * <p>
+ * Several snapshots, like those written by the shards of {@link ShardedMavenRepository}, can be read as one.
+ *
+ * <p>
+ * The file is gzipped. It starts with {@link #MAGIC} and {@link #FORMAT}, so that a file that isn't a snapshot,
+ * or that was written by a version of the generator that lays it out differently, is rejected up front.
+ * The rest is an object stream. Strings are written as objects, so that the many repeated
+ * ones (group IDs, core versions, dependency lists...) are stored once.
+ */
+public final class CatalogSnapshot {
+    private final Repository repository = new Repository();
+    private final Map<String,WikiPage> pages;
+
+    private CatalogSnapshot(Map<String,WikiPage> pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * The plugins and core releases, which can't be resolved.
+     */
+    public MavenRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Wiki pages from the snapshot.
+     */
+    public ConfluencePluginList createPluginList() {
+        return new ConfluencePluginList(pages);
+    }
+
+    /**
+     * Writes what has been learned about the given repository so far.
+     */
+    public static void write(MavenRepository repo, File file) throws Exception {
+        // the run that merges the snapshots may already be looking for this one
+        File tmp = DiskCache.createTempFile(file);
+        OutputStream gz = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        DataOutputStream header = new DataOutputStream(gz);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT);
+        header.flush();
+        ObjectOutputStream out = new ObjectOutputStream(gz);
+        try {
+
+            Collection<HudsonWar> wars = repo.getHudsonWar().values();
+            out.writeInt(wars.size());
+            for (HudsonWar w : wars)
+                writeArtifact(out, w);
+
+            Collection<PluginHistory> plugins = repo.listHudsonPlugins();
+            out.writeInt(plugins.size());
+            for (PluginHistory p : plugins) {
+                out.writeObject(p.artifactId);
+                out.writeObject(new ArrayList<String>(p.groupId));
+                out.writeInt(p.artifacts.size());
+                for (HPI h : p.artifacts.values())
+                    writeArtifact(out, h);
+            }
+
+            Map<String,PomFacts> poms = PomFacts.getKnown();
+            out.writeInt(poms.size());
+            for (Map.Entry<String,PomFacts> e : poms.entrySet()) {
+                out.writeObject(e.getKey());
+                out.writeObject(e.getValue());
+            }
+
+            Map<String,WikiPage> pages = ConfluencePluginList.getVisitedPages();
+            out.writeInt(pages.size());
+            for (Map.Entry<String,WikiPage> e : pages.entrySet()) {
+                out.writeObject(e.getKey());
+                out.writeObject(e.getValue());
+            }
+
+            System.out.println(String.format("Wrote %d core releases, %d plugins, %d POMs and %d wiki pages to %s",
+                    wars.size(), plugins.size(), poms.size(), pages.size(), file));
+        } finally {
+            out.close();
+        }
+        DiskCache.publish(tmp, file);
+    }
+
+    private static void writeArtifact(ObjectOutputStream out, MavenArtifact a) throws IOException {
+        out.writeObject(a.artifact.groupId);
+        out.writeObject(a.artifact.artifactId);
+        out.writeObject(a.artifact.version);
+        out.writeObject(a.artifact.packaging);
+        out.writeObject(a.artifact.classifier);
+
+        ManifestSummary m = a.getKnownManifestSummary();
+        out.writeObject(m==null ? null : m.getValues());
+        out.writeLong(m==null ? 0 : a.getTimestamp());
+        out.writeObject(a.getKnownDigest());
+    }
+
+    public static CatalogSnapshot read(File file) throws IOException {
+        return read(Collections.singletonList(file));
+    }
+
+    /**
+     * Reads several snapshots as one. A plugin in more than one of them is taken from the first,
+     * and a core release from the first that knows its digest.
+     */
+    public static CatalogSnapshot read(List<File> files) throws IOException {
+        CatalogSnapshot s = new CatalogSnapshot(new HashMap<String,WikiPage>());
+        for (File f : files)
+            s.readFrom(f);
+        return s;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readFrom(File file) throws IOException {
+        ObjectInputStream in = open(file);
+        try {
+            Repository repo = repository;
+            int wars = 0, plugins = 0, poms = 0, wikiPages = 0;
+
+            for (int n=in.readInt(); n>0; n--, wars++) {
+                HudsonWar w = new HudsonWar(repo, readCoordinates(in));
+                readKnown(in, w);
+                HudsonWar existing = repo.wars.get(w.getVersion());
+                if (existing==null || (existing.getKnownDigest()==null && w.getKnownDigest()!=null))
+                    repo.wars.put(w.getVersion(), w);
+            }
+
+            for (int n=in.readInt(); n>0; n--, plugins++) {
+                PluginHistory p = new PluginHistory((String)in.readObject());
+                p.groupId.addAll((List<String>)in.readObject());
+                for (int i=in.readInt(); i>0; i--) {
+                    HPI h = new HPI(repo, p, readCoordinates(in));
+                    readKnown(in, h);
+                    p.artifacts.put(h.getVersion(), h);
+                }
+                if (!repo.plugins.containsKey(p.artifactId))
+                    repo.plugins.put(p.artifactId, p);
+            }
+
+            for (int n=in.readInt(); n>0; n--, poms++)
+                PomFacts.remember((String)in.readObject(), (PomFacts)in.readObject());
+
+            for (int n=in.readInt(); n>0; n--, wikiPages++) {
+                String url = (String)in.readObject();
+                WikiPage page = (WikiPage)in.readObject();
+                if (!pages.containsKey(url))
+                    pages.put(url, page);
+            }
+
+            System.out.println(String.format("Read %d core releases, %d plugins, %d POMs and %d wiki pages from %s",
+                    wars, plugins, poms, wikiPages, file));
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to read "+file, e);
+        } catch (ObjectStreamException e) {
+            // e.g. a class of ours that changed incompatibly without a new FORMAT
+            throw new IOException("Failed to read "+file+"; it may have been written by another version of the generator", e);
+        } catch (AbstractArtifactResolutionException e) {
+            throw new IOException("Failed to read "+file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Checks the header, and returns the stream positioned at the objects.
+     */
+    private static ObjectInputStream open(File file) throws IOException {
+        InputStream gz = new FileInputStream(file);
+        try {
+            gz = new GZIPInputStream(new BufferedInputStream(gz));
+            DataInputStream header = new DataInputStream(gz);
+            int magic = header.readInt();
+            if (magic==OBJECT_STREAM)
+                throw new IOException(file+" is a catalog snapshot written by an older version of the generator. "+
+                        "Write it again with -snapshot.");
+            if (magic!=MAGIC)
+                throw new IOException(file+" is not a catalog snapshot");
+            int format = header.readInt();
+            if (format!=FORMAT)
+                throw new IOException(file+" is a catalog snapshot in format "+format+", but this version of the generator "+
+                        "only reads format "+FORMAT+". Write it again with -snapshot.");
+            return new ObjectInputStream(gz);
+        } catch (IOException e) {
+            try {
+                gz.close();
+            } catch (IOException x) {
+                // we're already failing
+            }
+            if (e instanceof ZipException || e instanceof EOFException)
+                throw new IOException(file+" is not a catalog snapshot", e);
+            throw e;
+        }
+    }
+
+    private static ArtifactCoordinates readCoordinates(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        return new ArtifactCoordinates((String)in.readObject(), (String)in.readObject(), (String)in.readObject(),
+                (String)in.readObject(), (String)in.readObject());
+    }
+
+    private static void readKnown(ObjectInputStream in, MavenArtifact a) throws IOException, ClassNotFoundException {
+        String[] manifest = (String[])in.readObject();
+        long timestamp = in.readLong();
+        String digest = (String)in.readObject();
+        a.restore(timestamp, manifest==null ? null : new ManifestSummary(manifest), digest);
+    }
+
+    /**
+     * The catalog from the snapshot. Nothing can be resolved; whatever wasn't recorded fails like a missing artifact.
+     */
+    private static final class Repository extends MavenRepository {
+        private final TreeMap<VersionNumber,HudsonWar> wars = new TreeMap<VersionNumber,HudsonWar>(VersionNumber.DESCENDING);
+        /**
+         * In the order {@link MavenRepositoryImpl} lists them.
+         */
+        private final Map<String,PluginHistory> plugins = new TreeMap<String,PluginHistory>(String.CASE_INSENSITIVE_ORDER);
+
+        @Override
+        protected Collection<PluginHistory> scanHudsonPlugins() {
+            return Collections.unmodifiableCollection(plugins.values());
+        }
+
+        @Override
+        public TreeMap<VersionNumber,HudsonWar> getHudsonWar() {
+            return new TreeMap<VersionNumber,HudsonWar>(wars);
+        }
+
+        @Override
+        protected File resolve(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException {
+            throw new NotInSnapshotException(a, type, classifier);
+        }
+    }
+
+    private static final class NotInSnapshotException extends AbstractArtifactResolutionException {
+        NotInSnapshotException(ArtifactCoordinates a, String type, String classifier) {
+            super("Not in the catalog snapshot", a.groupId, a.artifactId, a.version, type, classifier,
+                    Collections.emptyList(), Collections.<String>emptyList());
+        }
+    }
+
+    private static final int MAGIC = 0x4a43534e;  // "JCSN"
+    /**
+     * How snapshots started before they had a header.
+     */
+    private static final int OBJECT_STREAM = (ObjectStreamConstants.STREAM_MAGIC&0xFFFF)<<16 | ObjectStreamConstants.STREAM_VERSION;
+    /**
+     * Bump this when the layout changes, including the serialized form of the objects in it.
+     */
+    private static final int FORMAT = 2;
+}
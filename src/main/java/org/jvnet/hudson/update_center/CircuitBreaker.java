@@ -0,0 +1,77 @@
+package org.jvnet.hudson.update_center;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to a remote host after it failed repeatedly.
+ *
+ * <p>
+ * The breaker opens after {@code threshold} consecutive failures. While it is open, requests
+ * are refused without touching the network. After {@code cooldown} milliseconds, one trial
+ * request is let through; if it succeeds the breaker closes, otherwise it stays open for another cool-down.
+ */
+public final class CircuitBreaker {
+    private final String host;
+    private final int threshold;
+    private final long cooldown;
+    private final Clock clock;
+
+    private int consecutiveFailures;
+    private long openedAt = -1;
+    private boolean trialInProgress;
+    private int timesOpened;
+
+    public CircuitBreaker(String host, int threshold, long cooldown) {
+        this(host, threshold, cooldown, Clock.systemUTC());
+    }
+
+    CircuitBreaker(String host, int threshold, long cooldown, Clock clock) {
+        this.host = host;
+        this.threshold = threshold;
+        this.cooldown = cooldown;
+        this.clock = clock;
+    }
+
+    /**
+     * Is the breaker open, i.e. should callers use whatever fallback they have rather than calling the host?
+     */
+    public synchronized boolean isOpen() {
+        return openedAt>=0 && (trialInProgress || clock.millis()-openedAt < cooldown);
+    }
+
+    /**
+     * Checks if a request may be sent now. When the cool-down has passed, the first caller gets the trial request.
+     */
+    public synchronized boolean allowRequest() {
+        if (openedAt<0)     return true;
+        if (trialInProgress || clock.millis()-openedAt < cooldown)
+            return false;
+        trialInProgress = true;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (openedAt>=0)
+            System.out.println(String.format("=> [%s] circuit breaker closed", host));
+        consecutiveFailures = 0;
+        openedAt = -1;
+        trialInProgress = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (trialInProgress || (openedAt<0 && consecutiveFailures>=threshold)) {
+            if (openedAt<0) timesOpened++;
+            openedAt = clock.millis();
+            trialInProgress = false;
+            System.out.println(String.format("=> [%s] circuit breaker open for %ds after %d consecutive failures",
+                    host, TimeUnit.MILLISECONDS.toSeconds(cooldown), consecutiveFailures));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("[%s] circuit breaker %s, opened %d times", host, openedAt<0 ? "closed" : "open", timesOpened);
+    }
+}
@@ -26,6 +26,7 @@ package org.jvnet.hudson.update_center;
 import hudson.plugins.jira.soap.ConfluenceSoapService;
 import hudson.plugins.jira.soap.RemoteLabel;
 import hudson.plugins.jira.soap.RemotePage;
+import hudson.plugins.jira.soap.RemotePageHistory;
 import hudson.plugins.jira.soap.RemotePageSummary;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -39,13 +40,26 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -73,38 +87,213 @@ public class ConfluencePluginList {
             "http://hudson.gotdns.com/wiki/",
     };
 
-    private final File cacheDir = new File(System.getProperty("user.home"),".wiki.jenkins-ci.org-cache");
+    /** Throttles, times out and retries requests to the wiki. */
+    private static final RemoteHost WIKI = RemoteHost.forHost(URI.create(WIKI_URL).getHost());
+
+    private final RemoteHost wiki;
+    private final File cacheDir;
     private final ConfluenceSoapService service;
-    private final Map<String, String> pluginPages = new HashMap<String, String>();
+    /** Whether this instance talks to the real wiki, and so uses {@link #sharedChildren}. */
+    private final boolean shared;
+    private volatile ChildPages children;
+    /** Pages recorded by {@link CatalogSnapshot}, which we serve instead of talking to the wiki. Null otherwise. */
+    private final Map<String, WikiPage> snapshot;
+
+    /** Outcomes of {@link #resolveWikiUrl(String)}, including the URLs that don't lead to a plugin page. */
+    private final Map<String, String> resolvedUrls = new HashMap<String, String>();
 
     private String wikiSessionId;
 
+    private static volatile long maxStale = TimeUnit.DAYS.toMillis(1);
+
+    private static final File DEFAULT_CACHE_DIR = new File(System.getProperty("user.home"),".wiki.jenkins-ci.org-cache");
+
+    private static final String CHILDREN_CACHE = "Plugins.children";
+
+    /** How long the list of plugin pages is used before it's fetched again. */
+    private static final long CHILDREN_TTL = Long.getLong(ConfluencePluginList.class.getName() + ".childrenTtl",
+            TimeUnit.HOURS.toMillis(6));
+
+    /** How old the list of plugin pages must be for a page missing from it to cause a refetch. */
+    private static final long CHILDREN_MISS_INTERVAL = Long.getLong(ConfluencePluginList.class.getName() + ".childrenMissInterval",
+            TimeUnit.MINUTES.toMillis(10));
+
+    /** How long the labels of an unchanged page are used before they're fetched again. */
+    private static final long LABELS_TTL = Long.getLong(ConfluencePluginList.class.getName() + ".labelsTtl",
+            TimeUnit.DAYS.toMillis(7));
+
+    /** How long a failure to fetch a page or resolve a tinylink is remembered. */
+    private static final long NEGATIVE_TTL = Long.getLong(ConfluencePluginList.class.getName() + ".negativeTtl",
+            TimeUnit.HOURS.toMillis(6));
+
+    /** Pages being refreshed by {@link #REFRESHER}, by their cache key. */
+    private static final Set<String> REFRESHING = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final List<Future<?>> REFRESHES = Collections.synchronizedList(new ArrayList<Future<?>>());
+    private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "wiki refresh");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Child pages of the "Plugins" page, which are the only pages we consider to be plugin pages.
+     */
+    private static final class ChildPages implements Serializable {
+        /** When this was fetched from the wiki. */
+        final long timestamp;
+        /** Canonical URLs by {@link #getKeyForUrl(String)}. */
+        final HashMap<String, String> urls = new HashMap<String, String>();
+
+        ChildPages(RemotePageSummary[] children) {
+            this.timestamp = System.currentTimeMillis();
+            // Note the URL of each child page of the "Plugins" page on the wiki
+            for (RemotePageSummary child : children) {
+                // Normalise URLs coming from the Confluence API, so that when we later check whether a certain URL is in
+                // this list, we don't get a false negative due to differences in how the URL was encoded
+                urls.put(getKeyForUrl(child.getUrl()), child.getUrl());
+            }
+        }
+
+        long getAge() {
+            return System.currentTimeMillis() - timestamp;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The listing shared by all instances that talk to the real wiki, so that it's fetched at most once per process.
+     */
+    private static ChildPages sharedChildren;
+
+    /**
+     * Outcomes of {@link #getPage(String)} by POM URL, including the URLs that lead to no page, for {@link CatalogSnapshot}.
+     */
+    private static final Map<String, WikiPage> VISITED = new HashMap<String, WikiPage>();
+
     public ConfluencePluginList() throws IOException, ServiceException {
-        this(Confluence.connect(new URL(WIKI_URL)));
+        this(connect(), true, DEFAULT_CACHE_DIR, WIKI);
+    }
+
+    ConfluencePluginList(final ConfluenceSoapService service) throws IOException, ServiceException {
+        this(service, false, DEFAULT_CACHE_DIR, WIKI);
+    }
+
+    ConfluencePluginList(ConfluenceSoapService service, File cacheDir) throws IOException, ServiceException {
+        this(service, false, cacheDir, WIKI);
     }
 
-    ConfluencePluginList(ConfluenceSoapService service) throws IOException, ServiceException {
+    ConfluencePluginList(ConfluenceSoapService service, File cacheDir, RemoteHost wiki) throws IOException, ServiceException {
+        this(service, false, cacheDir, wiki);
+    }
+
+    /**
+     * Serves the given pages, from {@link #getVisitedPages()} of an earlier run, without talking to the wiki.
+     */
+    ConfluencePluginList(Map<String, WikiPage> snapshot) {
+        this.service = null;
+        this.shared = false;
+        this.snapshot = snapshot;
+        this.cacheDir = DEFAULT_CACHE_DIR;
+        this.wiki = WIKI;
+    }
+
+    private ConfluencePluginList(ConfluenceSoapService service, boolean shared, File cacheDir, RemoteHost wiki) throws IOException, ServiceException {
         this.service = service;
+        this.shared = shared;
+        this.snapshot = null;
+        this.cacheDir = cacheDir;
+        this.wiki = wiki;
 
         cacheDir.mkdirs();
 
+        this.children = shared ? loadSharedChildren() : fetchChildren();
+    }
+
+    private ChildPages fetchChildren() throws IOException {
         System.out.println("Fetching the 'Plugins' page and child info from the wiki...");
-        RemotePage page = service.getPage("", "JENKINS", "Plugins");
+        return new ChildPages(wiki.call(new Callable<RemotePageSummary[]>() {
+            public RemotePageSummary[] call() throws RemoteException {
+                RemotePage page = service.getPage("", "JENKINS", "Plugins");
+                return service.getChildren("", page.getId());
+            }
+        }));
+    }
 
-        // Note the URL of each child page of the "Plugins" page on the wiki
-        for (RemotePageSummary child : service.getChildren("", page.getId())) {
-            // Normalise URLs coming from the Confluence API, so that when we later check whether a certain URL is in
-            // this list, we don't get a false negative due to differences in how the URL was encoded
-            pluginPages.put(getKeyForUrl(child.getUrl()), child.getUrl());
+    /**
+     * Gets the listing from memory, or from disk if it's recent enough, or else from the wiki.
+     */
+    private ChildPages loadSharedChildren() throws IOException {
+        synchronized (ConfluencePluginList.class) {
+            if (sharedChildren == null) {
+                File cache = new File(cacheDir, CHILDREN_CACHE);
+                Object o = cache.exists() ? readObjectFromCache(cache) : null;
+                if (o instanceof ChildPages && ((ChildPages) o).getAge() <= CHILDREN_TTL) {
+                    sharedChildren = (ChildPages) o;
+                    System.out.println("Using the list of plugin pages from " + new Date(sharedChildren.timestamp));
+                } else {
+                    try {
+                        sharedChildren = fetchChildren();
+                        writeToCache(cache, sharedChildren);
+                    } catch (IOException e) {
+                        if (!(o instanceof ChildPages)) {
+                            throw e;
+                        }
+                        sharedChildren = (ChildPages) o;
+                        System.out.println("** Failed to fetch the list of plugin pages; using the one from "
+                                + new Date(sharedChildren.timestamp) + ": " + e);
+                    }
+                }
+            }
+            return sharedChildren;
         }
     }
 
+    /**
+     * Called when a URL isn't in the listing, in case the page was added since the listing was fetched.
+     * To keep the hundreds of plugins without a wiki page from causing a refetch each, this only refetches
+     * a listing that is older than {@link #CHILDREN_MISS_INTERVAL}.
+     *
+     * @return true if the listing was refetched.
+     */
+    private boolean refreshChildrenAfterMiss() {
+        synchronized (ConfluencePluginList.class) {
+            if (sharedChildren != null && sharedChildren.getAge() > CHILDREN_MISS_INTERVAL) {
+                try {
+                    sharedChildren = fetchChildren();
+                    writeToCache(new File(cacheDir, CHILDREN_CACHE), sharedChildren);
+                } catch (IOException e) {
+                    System.out.println("** Failed to refresh the list of plugin pages: " + e);
+                    return false;
+                }
+            }
+            if (children == sharedChildren) {
+                return false;
+            }
+            children = sharedChildren;
+            return true;
+        }
+    }
+
+    private static ConfluenceSoapService connect() throws IOException, ServiceException {
+        ConfluenceSoapService service = Confluence.connect(new URL(WIKI_URL));
+        RemoteHost.configureTimeout(service);
+        return service;
+    }
+
     /** @return A wiki URL if the given URL is a child page of the "Plugins" wiki page, otherwise {@code null}. */
     private String getCanonicalUrl(String url) {
-        return pluginPages.get(getKeyForUrl(url));
+        String key = getKeyForUrl(url);
+        String canonicalUrl = children.urls.get(key);
+        if (canonicalUrl == null && shared && refreshChildrenAfterMiss()) {
+            canonicalUrl = children.urls.get(key);
+        }
+        return canonicalUrl;
     }
 
-    private String getKeyForUrl(String url) {
+    private static String getKeyForUrl(String url) {
         // We call `getPath()` to ensure that the path is URL-encoded in a consistent way.
         // Confluence is case-insensitive when it comes to the URL path, hence `toLowerCase()`
         URI uri = URI.create(url.replace(' ', '+'));
@@ -125,6 +314,20 @@ public class ConfluencePluginList {
             return null;
         }
 
+        // Many plugins are looked up more than once per run, and most of those without a wiki page stay that way
+        synchronized (resolvedUrls) {
+            if (resolvedUrls.containsKey(url)) {
+                return resolvedUrls.get(url);
+            }
+        }
+        String canonicalUrl = doResolveWikiUrl(url);
+        synchronized (resolvedUrls) {
+            resolvedUrls.put(url, canonicalUrl);
+        }
+        return canonicalUrl;
+    }
+
+    private String doResolveWikiUrl(String url) throws IOException {
         // If the URL is a short URL (e.g. "/x/tgeIAg"), then resolve the target URL
         Matcher tinylink = TINYLINK_PATTERN.matcher(url);
         if (tinylink.matches()) {
@@ -169,6 +372,7 @@ public class ConfluencePluginList {
         if (cache.exists()) {
             return FileUtils.readFileToString(cache);
         }
+        checkPreviousFailure(cache);
 
         String url;
         try {
@@ -176,13 +380,38 @@ public class ConfluencePluginList {
             if (wikiSessionId == null)
                 wikiSessionId = initSession(WIKI_URL);
             url = checkRedirect(WIKI_URL + "pages/tinyurl.action?urlIdentifier=" + id, wikiSessionId);
-            FileUtils.writeStringToFile(cache, url);
+            if (url == null)
+                throw new IOException("No redirect for tinylink " + id);
+            DiskCache.writeString(cache, url);
+        } catch (RemoteHost.CircuitOpenException e) {
+            throw new RemoteException("Failed to lookup tinylink redirect", e);
         } catch (IOException e) {
+            recordFailure(cache, e);
             throw new RemoteException("Failed to lookup tinylink redirect", e);
         }
         return url;
     }
 
+    /**
+     * Fails right away if fetching what goes into the given cache file failed recently.
+     * This keeps us from retrying, and waiting on, the same broken pages and links in every run.
+     */
+    private static void checkPreviousFailure(File cache) throws IOException {
+        File failure = new File(cache + ".failed");
+        if (failure.exists() && failure.lastModified() >= System.currentTimeMillis() - NEGATIVE_TTL) {
+            throw new RemoteException("Previously failed on " + new Date(failure.lastModified()) + ": "
+                    + FileUtils.readFileToString(failure));
+        }
+    }
+
+    private static void recordFailure(File cache, Exception e) {
+        try {
+            DiskCache.writeString(new File(cache + ".failed"), String.valueOf(e));
+        } catch (IOException x) {
+            System.out.println("** Failed to record the failure for " + cache + ": " + x);
+        }
+    }
+
     /**
      * Attempts to fetch a page from the wiki, possibly returning from local disk cache.
      *
@@ -191,54 +420,223 @@ public class ConfluencePluginList {
      * @throws IOException If accessing the wiki fails.
      */
     public WikiPage getPage(String pomUrl) throws IOException {
+        if (snapshot != null) {
+            if (!snapshot.containsKey(pomUrl)) {
+                throw new IOException("No wiki page for " + pomUrl + " in the snapshot");
+            }
+            return snapshot.get(pomUrl);
+        }
+
+        WikiPage page = fetchPage(pomUrl);
+        synchronized (VISITED) {
+            VISITED.put(pomUrl, page);
+        }
+        return page;
+    }
+
+    /**
+     * @return What {@link #getPage(String)} returned for each POM URL so far in this run.
+     */
+    static Map<String, WikiPage> getVisitedPages() {
+        synchronized (VISITED) {
+            return new HashMap<String, WikiPage>(VISITED);
+        }
+    }
+
+    private WikiPage fetchPage(String pomUrl) throws IOException {
         String url = resolveWikiUrl(pomUrl);
         if (url == null) {
             return null;
         }
 
         // Determine the page identifier for the given wiki URL
-        String cacheKey = getIdentifierForUrl(url);
+        final String cacheKey = getIdentifierForUrl(url);
+
+        // Load the serialised page from the cache, if we retrieved or revalidated it within the last day
+        final File cache = new File(cacheDir, cacheKey + ".page");
+        final WikiPage cached = cache.exists() ? readFromCache(cache) : null;
+        long age = System.currentTimeMillis() - cache.lastModified();
+        if (cached != null && age <= TimeUnit.DAYS.toMillis(1)) {
+            return cached;
+        }
 
-        // Load the serialised page from the cache, if we retrieved it within the last day
-        File cache = new File(cacheDir, cacheKey + ".page");
-        if (cache.exists() && cache.lastModified() >= System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)) {
-            try {
-                FileInputStream f = new FileInputStream(cache);
-                try {
-                    Object o = new ObjectInputStream(f).readObject();
-                    if (o instanceof WikiPage) {
-                        return (WikiPage) o;
-                    }
+        // If allowed, go with the older copy for now and refresh it for the next run
+        if (cached != null && age <= maxStale) {
+            refreshInBackground(cacheKey, cache, cached);
+            return cached;
+        }
+
+        if (cached == null) {
+            checkPreviousFailure(cache);
+        }
 
-                    // Cache file (somehow) has the wrong type; fall through to retrieve the page
-                    System.out.println("** Ignoring cached wiki data with unexpected type: "+ o);
-                } finally {
-                    f.close();
+        try {
+            return fetch(cacheKey, cache, cached);
+        } catch (RemoteHost.CircuitOpenException e) {
+            // The wiki is having trouble; a cached copy of any age is better than nothing
+            if (cached != null) {
+                System.out.println("=> Wiki is unavailable; using cached page from " + new Date(cache.lastModified()));
+                return cached;
+            }
+            throw e;
+        } catch (IOException e) {
+            // Something went wrong; delete the cache file, and don't try again for a while
+            cache.delete();
+            recordFailure(cache, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Fetches a page from the wiki and caches it.
+     *
+     * @param cached The older copy of the page we have, if any.
+     */
+    private WikiPage fetch(final String cacheKey, File cache, final WikiPage cached) throws IOException {
+        // If we have an older copy that hasn't been edited since, keep it, and only refetch the labels once they're old
+        if (cached != null) {
+            WikiPage p = wiki.call(new Callable<WikiPage>() {
+                public WikiPage call() throws RemoteException {
+                    long id = cached.page.getId();
+                    if (isNewerThan(service.getPageHistory("", id), cached.page.getVersion()))
+                        return null;
+                    if (System.currentTimeMillis() - cached.labelsTimestamp <= LABELS_TTL) {
+                        System.out.println("=> Wiki page " + cacheKey + " is unchanged");
+                        return cached;
+                    }
+                    System.out.println("=> Wiki page " + cacheKey + " is unchanged; refreshing labels");
+                    return new WikiPage(cached.page, service.getLabelsById("", id));
                 }
-            } catch (Exception e) {
-                // Fall through to retrieve the page if anything goes wrong with parsing the cache file
-                System.out.println("** Failed to read cached wiki data: "+ e);
+            });
+            if (p != null) {
+                writeToCache(cache, p);
+                return p;
             }
         }
 
         // Otherwise fetch it from the wiki and cache the page
+        WikiPage p = wiki.call(new Callable<WikiPage>() {
+            public WikiPage call() throws RemoteException {
+                RemotePage page;
+                if (NumberUtils.isDigits(cacheKey)) {
+                    System.out.println("=> Fetching wiki page by ID "+ cacheKey);
+                    page = service.getPage("", Long.parseLong(cacheKey));
+                } else {
+                    System.out.println("=> Fetching wiki page by name: "+ cacheKey);
+                    page = service.getPage("", "JENKINS", cacheKey);
+                }
+                RemoteLabel[] labels = service.getLabelsById("", page.getId());
+                return new WikiPage(page, labels);
+            }
+        });
+        writeToCache(cache, p);
+        return p;
+    }
+
+    /**
+     * Refreshes a cached page on a background thread, unless that's already under way.
+     * If the refresh fails, the cached copy is left alone.
+     */
+    private void refreshInBackground(final String cacheKey, final File cache, final WikiPage cached) {
+        if (!REFRESHING.add(cacheKey)) {
+            return;
+        }
+        System.out.println("=> Using cached wiki page from " + new Date(cache.lastModified()) + "; refreshing it in the background");
+        REFRESHES.add(REFRESHER.submit(new Runnable() {
+            public void run() {
+                try {
+                    fetch(cacheKey, cache, cached);
+                } catch (IOException e) {
+                    System.out.println("** Failed to refresh wiki page " + cacheKey + " in the background: " + e);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Enables stale-while-revalidate: cached pages up to this old are used right away,
+     * while those older than a day are refreshed in the background for the next run.
+     * By default, a page older than a day is refreshed before it's used.
+     */
+    public static void setMaxStale(long maxStale, TimeUnit unit) {
+        ConfluencePluginList.maxStale = unit.toMillis(maxStale);
+    }
+
+    /**
+     * Waits for the background refreshes to complete, so that the next run benefits from them.
+     */
+    public static void awaitBackgroundRefreshes() throws InterruptedException {
+        List<Future<?>> refreshes;
+        synchronized (REFRESHES) {
+            refreshes = new ArrayList<Future<?>>(REFRESHES);
+            REFRESHES.clear();
+        }
+        if (refreshes.isEmpty()) {
+            return;
+        }
+        System.out.println("Waiting for " + refreshes.size() + " wiki pages to be refreshed in the background...");
+        for (Future<?> f : refreshes) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a page has been edited since we fetched the given version of it.
+     *
+     * <p>
+     * {@link RemotePageSummary} doesn't carry the version of a page, so we look at its history instead,
+     * which only consists of small records. The history lists the versions that were superseded,
+     * so if it contains the version we have, there's a newer one.
+     */
+    static boolean isNewerThan(RemotePageHistory[] history, int version) {
+        if (history == null) {
+            return false;
+        }
+        for (RemotePageHistory h : history) {
+            if (h.getVersion() >= version) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a serialised page from a cache file.
+     *
+     * @return The cached page, or {@code null} if the cache file couldn't be read.
+     */
+    private WikiPage readFromCache(File cache) {
+        Object o = readObjectFromCache(cache);
+        if (o instanceof WikiPage) {
+            return (WikiPage) o;
+        }
+
+        // Cache file (somehow) has the wrong type; fall through to retrieve the page
+        if (o != null) {
+            System.out.println("** Ignoring cached wiki data with unexpected type: "+ o);
+        }
+        return null;
+    }
+
+    /**
+     * @return The object in the cache file, or {@code null} if the cache file couldn't be read.
+     */
+    private static Object readObjectFromCache(File cache) {
         try {
-            RemotePage page;
-            if (NumberUtils.isDigits(cacheKey)) {
-                System.out.println("=> Fetching wiki page by ID "+ cacheKey);
-                page = service.getPage("", Long.parseLong(cacheKey));
-            } else {
-                System.out.println("=> Fetching wiki page by name: "+ cacheKey);
-                page = service.getPage("", "JENKINS", cacheKey);
+            FileInputStream f = new FileInputStream(cache);
+            try {
+                return new ObjectInputStream(f).readObject();
+            } finally {
+                f.close();
             }
-            RemoteLabel[] labels = service.getLabelsById("", page.getId());
-            WikiPage p = new WikiPage(page, labels);
-            writeToCache(cache, p);
-            return p;
-        } catch (RemoteException e) {
-            // Something went wrong; delete the cache file
-            cache.delete();
-            throw e;
+        } catch (Exception e) {
+            // Fall through to retrieve the data if anything goes wrong with parsing the cache file
+            System.out.println("** Failed to read cached wiki data: "+ e);
+            return null;
         }
     }
 
@@ -247,17 +645,15 @@ public class ConfluencePluginList {
      *
      * In case another update center runs concurrently, write to a temporary file and then atomically rename it.
      */
-    private void writeToCache(File cache, Object o) throws IOException {
-        File tmp = new File(cache+".tmp");
+    private static void writeToCache(File cache, Object o) throws IOException {
+        File tmp = DiskCache.createTempFile(cache);
         ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tmp));
         try {
             oos.writeObject(o);
         } finally {
             oos.close();
         }
-        cache.delete();
-        tmp.renameTo(cache);
-        tmp.delete();
+        DiskCache.publish(tmp, cache);
     }
 
     /**
@@ -276,23 +672,27 @@ public class ConfluencePluginList {
         return path.replaceAll("(?i)/display/JENKINS/", "").replace("+", " ");
     }
 
-    private static String checkRedirect(String url, String sessionId) throws IOException {
+    private String checkRedirect(String url, String sessionId) throws IOException {
         return connect(url, sessionId).getHeaderField("Location");
     }
 
-    private static String initSession(String url) throws IOException {
+    private String initSession(String url) throws IOException {
         String cookie = connect(url, null).getHeaderField("Set-Cookie");
         return cookie.substring(0, cookie.indexOf(';')); // Remove ;Path=/
     }
 
-    private static HttpURLConnection connect(String url, String sessionId) throws IOException {
-        HttpURLConnection huc = (HttpURLConnection)new URL(url).openConnection();
-        huc.setInstanceFollowRedirects(false);
-        huc.setDoOutput(false);
-        if (sessionId != null) huc.addRequestProperty("Cookie", sessionId);
-        InputStream i = huc.getInputStream();
-        while (i.read() >= 0) ; // Drain stream
-        return huc;
+    private HttpURLConnection connect(final String url, final String sessionId) throws IOException {
+        return wiki.call(new Callable<HttpURLConnection>() {
+            public HttpURLConnection call() throws IOException {
+                HttpURLConnection huc = (HttpURLConnection)RemoteHost.openConnection(new URL(url));
+                huc.setInstanceFollowRedirects(false);
+                huc.setDoOutput(false);
+                if (sessionId != null) huc.addRequestProperty("Cookie", sessionId);
+                InputStream i = huc.getInputStream();
+                while (i.read() >= 0) ; // Drain stream
+                return huc;
+            }
+        });
     }
 
 }
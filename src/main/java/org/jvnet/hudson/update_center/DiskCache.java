@@ -0,0 +1,126 @@
+package org.jvnet.hudson.update_center;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Directory of serialized objects that survive from one run to the next.
+ *
+ * <p>
+ * Only use this for things that are expensive to compute and cheap to recompute if lost:
+ * an entry that can't be read for any reason is treated as a miss.
+ * The caches live in {@code ~/.update-center2-cache} unless the {@code org.jvnet.hudson.update_center.DiskCache.root}
+ * system property says otherwise.
+ */
+public final class DiskCache {
+    private final File dir;
+
+    public DiskCache(String name) {
+        this(new File(ROOT, name));
+    }
+
+    public DiskCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Keys may contain '/' to spread the entries over subdirectories.
+     */
+    private File file(String key) {
+        if (key.contains(".."))
+            throw new IllegalArgumentException("Invalid cache key: "+key);
+        return new File(dir, key+".ser");
+    }
+
+    /**
+     * @return
+     *      The cached value, or null if there's none or it couldn't be read.
+     */
+    public <T> T get(String key, Class<T> type) {
+        File f = file(key);
+        if (!f.exists())    return null;
+        try {
+            FileInputStream in = new FileInputStream(f);
+            try {
+                Object o = new ObjectInputStream(in).readObject();
+                if (type.isInstance(o))
+                    return type.cast(o);
+                System.out.println("** Ignoring cached data with unexpected type in "+f+": "+o);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            System.out.println("** Failed to read cached data from "+f+": "+e);
+        }
+        return null;
+    }
+
+    /**
+     * When was the entry last written? 0 if there's no such entry.
+     */
+    public long getTimestamp(String key) {
+        return file(key).lastModified();
+    }
+
+    /**
+     * In case another update center runs concurrently, this writes to a temporary file and then atomically renames it.
+     */
+    public void put(String key, Serializable value) throws IOException {
+        File f = file(key);
+        File tmp = createTempFile(f);
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tmp));
+        try {
+            oos.writeObject(value);
+        } finally {
+            oos.close();
+        }
+        publish(tmp, f);
+    }
+
+    /**
+     * A temporary file next to the given one, to be {@link #publish(File, File) published} as the latter.
+     * Each caller gets its own, so that concurrent writers don't write into each other's.
+     */
+    static File createTempFile(File f) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        return File.createTempFile(f.getName()+".", ".tmp", dir);
+    }
+
+    /**
+     * Replaces the given file with the temporary file, so that readers see either the old or the new contents.
+     */
+    static void publish(File tmp, File f) throws IOException {
+        if (tmp.renameTo(f))
+            return;
+        // Windows doesn't replace, so readers may briefly see no file there
+        f.delete();
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("Failed to rename "+tmp+" to "+f);
+        }
+    }
+
+    /**
+     * Writes a string as {@link #publish(File, File)} does.
+     */
+    static void writeString(File f, String s) throws IOException {
+        File tmp = createTempFile(f);
+        FileUtils.writeStringToFile(tmp, s);
+        publish(tmp, f);
+    }
+
+    public void remove(String key) {
+        file(key).delete();
+    }
+
+    private static final File ROOT = new File(System.getProperty(DiskCache.class.getName()+".root",
+            new File(System.getProperty("user.home"), ".update-center2-cache").getPath()));
+}
@@ -0,0 +1,127 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the manifests of plugin releases ahead of the code that renders them, in two lanes.
+ *
+ * <p>
+ * update-center.json only needs the latest and previous release of each plugin, so those go first,
+ * in the fast lane. The other releases are only needed for the release history and the download
+ * directories, so they go to the background lane, which only starts once the fast lane is done.
+ * Rendering still reads manifests itself whenever they aren't there yet; the lanes only make it
+ * more likely that they are, and {@link MavenArtifact} makes sure that they are read once.
+ * The background lane is also where we check that the latest release by version is the latest by date,
+ * as that takes every release, so it runs even when nothing else needs the older releases.
+ */
+final class Enrichment {
+    private final ExecutorService fast = Executors.newFixedThreadPool(FAST_THREADS, new Factory("enrich latest", Thread.NORM_PRIORITY));
+    private final ExecutorService background = Executors.newFixedThreadPool(BACKGROUND_THREADS, new Factory("enrich history", Thread.MIN_PRIORITY));
+    private final AtomicInteger pending = new AtomicInteger();
+
+    Enrichment(Collection<PluginHistory> plugins) {
+        final List<Runnable> later = new ArrayList<Runnable>();
+        pending.set(plugins.size()+1);
+        for (final PluginHistory p : plugins) {
+            final List<HPI> versions = new ArrayList<HPI>(p.artifacts.values());
+            fast.execute(new Runnable() {
+                public void run() {
+                    try {
+                        // like Plugin, skip over the releases that can't be read
+                        int n = 0;
+                        for (HPI h : versions) {
+                            if (read(h) && ++n==2)
+                                break;
+                        }
+                    } finally {
+                        fastDone(later);
+                    }
+                }
+            });
+            later.add(new Runnable() {
+                public void run() {
+                    List<HPI> readable = new ArrayList<HPI>();
+                    for (HPI h : versions)
+                        if (read(h))
+                            readable.add(h);
+                    try {
+                        Plugin.checkLatestDate(readable);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to check the latest release of "+p.artifactId+" by date",e);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Failed to check the latest release of "+p.artifactId+" by date",e);
+                    }
+                }
+            });
+        }
+        fastDone(later);
+    }
+
+    private void fastDone(List<Runnable> later) {
+        if (pending.decrementAndGet()==0) {
+            System.out.println("Read the manifests of the latest releases; "+later.size()+" plugins to go in the background");
+            fast.shutdown();
+            for (Runnable r : later)
+                background.execute(r);
+            background.shutdown();
+        }
+    }
+
+    /**
+     * Waits for both lanes to be done, so that whatever is written next doesn't depend on how far they got.
+     */
+    public void await() throws InterruptedException {
+        fast.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        background.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean read(HPI h) {
+        try {
+            h.getManifestSummary();
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the manifest of "+h,e);
+            return false;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the manifest of "+h,e);
+            return false;
+        }
+    }
+
+    private static final class Factory implements ThreadFactory {
+        private final String name;
+        private final int priority;
+
+        Factory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            t.setPriority(priority);
+            return t;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(Enrichment.class.getName());
+
+    private static final String PREFIX = Enrichment.class.getName();
+
+    /**
+     * Enough threads for the fast lane to use every slot that {@link RemoteHost} may give it; that's what does the throttling.
+     */
+    private static final int FAST_THREADS = Integer.getInteger(PREFIX+".fastThreads", AdaptiveConcurrencyLimiter.MAX_LIMIT);
+    private static final int BACKGROUND_THREADS = Integer.getInteger(PREFIX+".backgroundThreads", 2);
+}
@@ -23,10 +23,8 @@
  */
 package org.jvnet.hudson.update_center;
 
-import hudson.util.VersionNumber;
 import net.sf.json.JSONObject;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
-import org.sonatype.nexus.index.ArtifactInfo;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -44,12 +42,19 @@ import java.net.MalformedURLException;
 public class HPI extends MavenArtifact {
     /**
      * Which of the lineage did this come from?
+     *
+     * <p>
+     * This is the complete lineage as discovered in the repository. Decorating repositories
+     * hand out filtered copies of it, so use the {@link PluginHistory} you got the HPI from
+     * when you need to know which versions are visible.
      */
     public final PluginHistory history;
 
-    private final Pattern developersPattern = Pattern.compile("([^:]*):([^:]*):([^,]*),?");
+    private VersionKey requiredJenkinsVersion;
 
-    public HPI(MavenRepository repository, PluginHistory history, ArtifactInfo artifact) throws AbstractArtifactResolutionException {
+    private static final Pattern DEVELOPERS_PATTERN = Pattern.compile("([^:]*):([^:]*):([^,]*),?");
+
+    public HPI(MavenRepository repository, PluginHistory history, ArtifactCoordinates artifact) throws AbstractArtifactResolutionException {
         super(repository, artifact);
         this.history = history;
     }
@@ -65,7 +70,7 @@ public class HPI extends MavenArtifact {
      * Who built this release?
      */
     public String getBuiltBy() throws IOException {
-        return getManifestAttributes().getValue("Built-By");
+        return getManifestSummary().getValue("Built-By");
     }
 
     /**
@@ -73,18 +78,17 @@ public class HPI extends MavenArtifact {
      *      Most probably you should be using {@link #getRequiredJenkinsVersion()}
      */
     public String getRequiredHudsonVersion() throws IOException {
-        return getManifestAttributes().getValue("Hudson-Version");
+        return getManifestSummary().getValue("Hudson-Version");
     }
 
     public String getRequiredJenkinsVersion() throws IOException {
-        String v = getManifestAttributes().getValue("Jenkins-Version");
+        String v = getManifestSummary().getValue("Jenkins-Version");
         if (v!=null)        return v;
 
-        v = getManifestAttributes().getValue("Hudson-Version");
+        v = getManifestSummary().getValue("Hudson-Version");
         if (fixNull(v) != null) {
             try {
-                VersionNumber n = new VersionNumber(v);
-                if (n.compareTo(MavenRepositoryImpl.CUT_OFF)<=0)
+                if (VersionKey.of(v).compareTo(MavenRepositoryImpl.CUT_OFF_KEY)<=0)
                     return v;   // Hudson <= 1.395 is treated as Jenkins
                 // TODO: Jenkins-Version started appearing from Jenkins 1.401 POM.
                 // so maybe Hudson > 1.400 shouldn't be considered as a Jenkins plugin?
@@ -105,20 +109,29 @@ public class HPI extends MavenArtifact {
         return v;
     }
 
+    /**
+     * {@link #getRequiredJenkinsVersion()}, parsed once.
+     */
+    public VersionKey getRequiredJenkinsVersionKey() throws IOException {
+        if (requiredJenkinsVersion==null)
+            requiredJenkinsVersion = VersionKey.of(getRequiredJenkinsVersion());
+        return requiredJenkinsVersion;
+    }
+
     public String getCompatibleSinceVersion() throws IOException {
-        return getManifestAttributes().getValue("Compatible-Since-Version");
+        return getManifestSummary().getValue("Compatible-Since-Version");
     }
 
     public String getDisplayName() throws IOException {
-        return getManifestAttributes().getValue("Long-Name");
+        return getManifestSummary().getValue("Long-Name");
     }
 
     public String getSandboxStatus() throws IOException {
-        return getManifestAttributes().getValue("Sandbox-Status");
+        return getManifestSummary().getValue("Sandbox-Status");
     }
 
     public List<Dependency> getDependencies() throws IOException {
-        String deps = getManifestAttributes().getValue("Plugin-Dependencies");
+        String deps = getManifestSummary().getValue("Plugin-Dependencies");
         if(deps==null)  return Collections.emptyList();
 
         List<Dependency> r = new ArrayList<Dependency>();
@@ -128,11 +141,11 @@ public class HPI extends MavenArtifact {
     }
 
     public List<Developer> getDevelopers() throws IOException {
-        String devs = getManifestAttributes().getValue("Plugin-Developers");
+        String devs = getManifestSummary().getValue("Plugin-Developers");
         if (devs == null || devs.trim().length()==0) return Collections.emptyList();
 
         List<Developer> r = new ArrayList<Developer>();
-        Matcher m = developersPattern.matcher(devs);
+        Matcher m = DEVELOPERS_PATTERN.matcher(devs);
         int totalMatched = 0;
         while (m.find()) {
             r.add(new Developer(m.group(1).trim(), m.group(2).trim(), m.group(3).trim()));
@@ -144,12 +157,6 @@ public class HPI extends MavenArtifact {
         return r;
     }
 
-    boolean isEqualsTo(String groupId, String artifactId, String version) {
-        return artifact.artifactId.equals(artifactId)
-            && artifact.groupId.equals(groupId)
-            && artifact.version.equals(version);
-    }
-
     public static class Dependency {
         public final String name;
         public final String version;
@@ -23,8 +23,6 @@
  */
 package org.jvnet.hudson.update_center;
 
-import hudson.util.VersionNumber;
-import org.sonatype.nexus.index.ArtifactInfo;
 
 import java.net.URL;
 import java.net.MalformedURLException;
@@ -33,7 +31,7 @@ import java.net.MalformedURLException;
  * @author Kohsuke Kawaguchi
  */
 public class HudsonWar extends MavenArtifact {
-    public HudsonWar(MavenRepository repository, ArtifactInfo artifact) {
+    public HudsonWar(MavenRepository repository, ArtifactCoordinates artifact) {
         super(repository, artifact);
     }
 
@@ -46,18 +44,18 @@ public class HudsonWar extends MavenArtifact {
      * Returns the Maven artifact representing the correpsonding core jar file.
      */
     public MavenArtifact getCoreArtifact() {
-        return new MavenArtifact(repository,new ArtifactInfo(
-                artifact.repository,
+        return new MavenArtifact(repository,new ArtifactCoordinates(
                 artifact.groupId,
                 artifact.artifactId.replace("war","core"),
                 artifact.version,
+                "jar",
                 artifact.classifier
         ));
     }
 
     public String getFileName() {
         String fileName;
-        if (new VersionNumber(version).compareTo(MavenRepositoryImpl.CUT_OFF)<=0)
+        if (getVersionKey().compareTo(MavenRepositoryImpl.CUT_OFF_KEY)<=0)
             fileName = "hudson.war";
         else
             fileName = "jenkins.war";
@@ -0,0 +1,186 @@
+package org.jvnet.hudson.update_center;
+
+import org.sonatype.nexus.index.ArtifactInfo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The few index records we actually use, like plugins and core wars that got past our filters,
+ * saved so that a run against an unchanged index doesn't need to open it in Lucene and search it.
+ *
+ * <p>
+ * The records are grouped in named sections, and the file is only used if it was written for the same key,
+ * which identifies the version of the indices and of the filters. It's laid out to be mapped and read
+ * in one go: a header, a table of the distinct strings, then each record as five indices into that table.
+ */
+final class IndexRecords {
+    private final String key;
+    private final Map<String,List<ArtifactInfo>> sections = new LinkedHashMap<String,List<ArtifactInfo>>();
+
+    IndexRecords(String key) {
+        this.key = key;
+    }
+
+    public void put(String section, List<ArtifactInfo> records) {
+        sections.put(section, records);
+    }
+
+    /**
+     * Records of the given section, or null if there's no such section.
+     */
+    public List<ArtifactInfo> get(String section) {
+        List<ArtifactInfo> r = sections.get(section);
+        return r==null ? null : Collections.unmodifiableList(r);
+    }
+
+    /**
+     * Loads the records saved for the given key.
+     *
+     * @return
+     *      null if there's no such file, or it was written for another key or in another format.
+     */
+    public static IndexRecords load(File file, String key) throws IOException {
+        if (!file.exists())
+            return null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (b.getInt()!=MAGIC || b.getInt()!=FORMAT || !key.equals(getString(b)))
+                return null;
+
+            // every string takes at least its length, so a bigger count can only come from a broken file
+            String[] strings = new String[count(b, 4)];
+            for (int i=0; i<strings.length; i++)
+                strings[i] = getString(b);
+
+            IndexRecords r = new IndexRecords(key);
+            for (int n=b.getInt(); n>0; n--) {
+                String section = strings[b.getInt()];
+                int size = count(b, 5*4);
+                List<ArtifactInfo> records = new ArrayList<ArtifactInfo>(size);
+                for (int i=0; i<size; i++) {
+                    ArtifactInfo a = new ArtifactInfo();
+                    a.groupId = get(strings, b);
+                    a.artifactId = get(strings, b);
+                    a.version = get(strings, b);
+                    a.packaging = get(strings, b);
+                    a.classifier = get(strings, b);
+                    records.add(a);
+                }
+                r.sections.put(section, records);
+            }
+            return r;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, ArrayIndexOutOfBoundsException... from a truncated or corrupted file
+            System.out.println("** Ignoring broken index records in "+file+": "+e);
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the records next to the given file first, then replaces it, so that readers never see half of them.
+     */
+    public void save(File file) throws IOException {
+        Map<String,Integer> table = new LinkedHashMap<String,Integer>();
+        for (Map.Entry<String,List<ArtifactInfo>> e : sections.entrySet()) {
+            index(table, e.getKey());
+            for (ArtifactInfo a : e.getValue()) {
+                index(table, a.groupId);
+                index(table, a.artifactId);
+                index(table, a.version);
+                index(table, a.packaging);
+                index(table, a.classifier);
+            }
+        }
+
+        File tmp = DiskCache.createTempFile(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            putString(out, key);
+
+            out.writeInt(table.size());
+            for (String s : table.keySet())
+                putString(out, s);
+
+            out.writeInt(sections.size());
+            for (Map.Entry<String,List<ArtifactInfo>> e : sections.entrySet()) {
+                out.writeInt(table.get(e.getKey()));
+                out.writeInt(e.getValue().size());
+                for (ArtifactInfo a : e.getValue()) {
+                    out.writeInt(index(table, a.groupId));
+                    out.writeInt(index(table, a.artifactId));
+                    out.writeInt(index(table, a.version));
+                    out.writeInt(index(table, a.packaging));
+                    out.writeInt(index(table, a.classifier));
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        DiskCache.publish(tmp, file);
+    }
+
+    private static int index(Map<String,Integer> table, String s) {
+        if (s==null)    return NULL;
+        Integer i = table.get(s);
+        if (i==null)
+            table.put(s, i=table.size());
+        return i;
+    }
+
+    private static String get(String[] strings, ByteBuffer b) {
+        int i = b.getInt();
+        return i==NULL ? null : strings[i];
+    }
+
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[count(b, 1)];
+        b.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Reads the number of items that follow, checking that the rest of the file can hold that many,
+     * so that a corrupted count fails here rather than when we allocate room for them.
+     */
+    private static int count(ByteBuffer b, int minItemSize) {
+        int n = b.getInt();
+        if (n<0 || n>b.remaining()/minItemSize)
+            throw new IllegalStateException("Invalid count "+n+" at "+(b.position()-4));
+        return n;
+    }
+
+    private static final int MAGIC = 0x4a524543;  // "JREC"
+    /**
+     * Bump this when the layout changes.
+     */
+    private static final int FORMAT = 1;
+    private static final int NULL = -1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+}
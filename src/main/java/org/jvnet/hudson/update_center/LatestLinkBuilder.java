@@ -2,24 +2,53 @@ package org.jvnet.hudson.update_center;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Generates latest/index.html and latest/.htaccess
  *
  * The former lists all the available symlinks, and the latter actually defines the redirects.
  *
+ * <p>
+ * With a map name, the redirects are written to latest/latest.map.txt and latest/latest.map.{pag,dir}
+ * instead, and .htaccess only has a single rule that looks them up through the {@code RewriteMap}
+ * of that name. Apache then finds a redirect with a hash lookup rather than by trying one regex per plugin.
+ * {@code RewriteMap} can't be declared in .htaccess, so the server configuration needs to have either
+ * <pre>
+ * RewriteMap NAME dbm=sdbm:/path/to/latest/latest.map
+ * RewriteMap NAME txt:/path/to/latest/latest.map.txt
+ * </pre>
+ *
  * @author Kohsuke Kawaguchi
  */
 public class LatestLinkBuilder implements Closeable {
+    private final File dir;
     private final IndexHtmlBuilder index;
     private final PrintWriter htaccess;
+    /**
+     * Redirects for the map, or null if we write one rule for each.
+     */
+    private final Map<String,String> map;
 
     public LatestLinkBuilder(File dir) throws IOException {
+        this(dir, null);
+    }
+
+    /**
+     * @param mapName
+     *      Name of the {@code RewriteMap} that the server configuration defines over the files we write,
+     *      or null to write one {@code RewriteRule} per redirect.
+     */
+    public LatestLinkBuilder(File dir, String mapName) throws IOException {
         System.out.println(String.format("Writing plugin symlinks and redirects to dir: %s", dir));
 
+        this.dir = dir;
         index = new IndexHtmlBuilder(dir,"Permalinks to latest files");
         htaccess = new PrintWriter(new FileWriter(new File(dir,".htaccess")),true);
 
@@ -27,6 +56,15 @@ public class LatestLinkBuilder implements Closeable {
         // Redirect directive doesn't let us write redirect rules relative to the directory .htaccess exists,
         // so we are back to mod_rewrite
         htaccess.println("RewriteEngine on");
+
+        if (mapName!=null) {
+            map = new LinkedHashMap<String,String>();
+            htaccess.printf("# needs 'RewriteMap %s dbm=sdbm:.../%s' in the server configuration\n", mapName, MAP);
+            htaccess.printf("RewriteCond ${%s:$1} ^(.+)$\n", mapName);
+            htaccess.println("RewriteRule ^([^/]+)$ %1 [R=302,L]");
+        } else {
+            map = null;
+        }
     }
 
     public void add() {
@@ -36,10 +74,35 @@ public class LatestLinkBuilder implements Closeable {
     public void close() throws IOException {
         index.close();
         htaccess.close();
+        if (map!=null)
+            writeMap();
     }
 
     public void add(String localPath, String target) throws IOException {
-        htaccess.printf("RewriteRule ^%s$ %s [R=302,L]\n", localPath.replace(".", "\\."), target);
+        if (map!=null) {
+            // like with the rules, the first one wins
+            if (!map.containsKey(localPath))
+                map.put(localPath, target);
+        } else {
+            htaccess.printf("RewriteRule ^%s$ %s [R=302,L]\n", localPath.replace(".", "\\."), target);
+        }
         index.add(localPath, localPath);
     }
+
+    private void writeMap() throws IOException {
+        SdbmWriter dbm = new SdbmWriter();
+        PrintWriter txt = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir,MAP+".txt")),"UTF-8"));
+        try {
+            txt.println("# GENERATED. DO NOT MODIFY.");
+            for (Map.Entry<String,String> e : map.entrySet()) {
+                txt.println(e.getKey()+" "+e.getValue());
+                dbm.put(e.getKey(), e.getValue());
+            }
+        } finally {
+            txt.close();
+        }
+        dbm.write(new File(dir,MAP));
+    }
+
+    private static final String MAP = "latest.map";
 }
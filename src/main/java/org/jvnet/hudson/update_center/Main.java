@@ -42,9 +42,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -132,8 +135,49 @@ public class Main {
     @Option(name="-skip-release-history",usage="Skip generation of release history")
     public boolean skipReleaseHistory;
 
+    /**
+     * Additional update centers generated from the same repository in the same run,
+     * into sibling directories of {@link #www}. See {@link Segment#parse(String)} for the notation.
+     */
+    @Option(name="-segment",usage="Also generate the segment NAME:CAP:CAPCORE:EXPERIMENTAL next to the -www directory. Can be repeated.")
+    public List<String> segments = new ArrayList<String>();
+
+    /**
+     * Name of the {@link VersionRoutes} files written next to the segments.
+     */
+    @Option(name="-routing-map",usage="Write the table that routes ?version= to the segments as the RewriteMap NAME, next to the -www directory")
+    public String routingMap;
+
+    /**
+     * Writes the latest permalinks as a map for Apache to look up, rather than as one rewrite rule each.
+     * See {@link LatestLinkBuilder}.
+     */
+    @Option(name="-latest-map",usage="Write latest permalinks as a RewriteMap named PREFIX followed by the name of the -www directory, which the server configuration must define")
+    public String latestMapPrefix;
+
+    @Option(name="-snapshot",usage="Write the catalog as enriched by this run to the specified file, for -from-snapshot")
+    public File snapshot;
+
+    @Option(name="-from-snapshot",usage="Render from a file written by -snapshot, without the Maven repository or the wiki. Can be repeated to merge the snapshots of -shard runs.")
+    public List<File> fromSnapshot = new ArrayList<File>();
+
+    /**
+     * See {@link ShardedMavenRepository}.
+     */
+    @Option(name="-shard",usage="Only enrich the plugins of shard i/N (from 0), and write them with -snapshot for a -from-snapshot run to merge. What this writes to -www is partial.")
+    public String shard;
+
+    @Option(name="-wiki-max-stale",usage="Use cached wiki pages up to this many days old right away, and refresh those older than a day in the background")
+    public Integer wikiMaxStaleDays;
+
     public Signer signer = new Signer();
 
+    /**
+     * Plugin entries shared by the update centers of this run. Null when pretty-printing,
+     * as the indentation of an entry would depend on where it ends up.
+     */
+    private SplicedEntries entries;
+
     public static final String EOL = System.getProperty("line.separator");
 
     public static void main(String[] args) throws Exception {
@@ -145,10 +189,10 @@ public class Main {
         new ClassParser().parse(signer, p);
         try {
             p.parseArgument(args);
+            validateOptions();
 
-            if (www!=null) {
-                prepareStandardDirectoryLayout();
-            }
+            if (wikiMaxStaleDays!=null)
+                ConfluencePluginList.setMaxStale(wikiMaxStaleDays, TimeUnit.DAYS);
 
             run();
             return 0;
@@ -159,6 +203,52 @@ public class Main {
         }
     }
 
+    /**
+     * Checks the combination of options, and parses those that have a notation of their own,
+     * so that mistakes are reported before anything is downloaded.
+     */
+    void validateOptions() throws CmdLineException {
+        if (www!=null) {
+            prepareStandardDirectoryLayout();
+        }
+        if (!segments.isEmpty() && www==null)
+            throw new CmdLineException("-segment requires -www");
+        parseSegments(segments);
+        if (routingMap!=null && segments.isEmpty())
+            throw new CmdLineException("-routing-map requires -segment");
+        if (!fromSnapshot.isEmpty() && download!=null)
+            throw new CmdLineException("-download needs the artifacts themselves, which aren't in -from-snapshot");
+        if (shard!=null) {
+            if (snapshot==null)
+                throw new CmdLineException("-shard requires -snapshot");
+            try {
+                ShardedMavenRepository.parse(null, shard);
+            } catch (IllegalArgumentException e) {
+                throw new CmdLineException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Parses the -segment values, whose names must be unique as they name the directories they're generated into.
+     */
+    static List<Segment> parseSegments(List<String> specs) throws CmdLineException {
+        List<Segment> r = new ArrayList<Segment>();
+        Set<String> names = new HashSet<String>();
+        for (String spec : specs) {
+            Segment s;
+            try {
+                s = Segment.parse(spec);
+            } catch (IllegalArgumentException e) {
+                throw new CmdLineException("Invalid -segment: "+e.getMessage());
+            }
+            if (!names.add(s.name))
+                throw new CmdLineException("There is more than one -segment named "+s.name);
+            r.add(s);
+        }
+        return r;
+    }
+
     private String getCapCore() {
         if (capCore!=null)  return capCore;
         return capPlugin;
@@ -175,12 +265,11 @@ public class Main {
     public void run() throws Exception {
 
         MavenRepository repo = createRepository();
+        Enrichment enrichment = new Enrichment(repo.listHudsonPlugins());
 
-        LatestLinkBuilder latest = createHtaccessWriter();
-
-        JSONObject ucRoot = buildUpdateCenterJson(repo, latest);
-        writeToFile(updateCenterPostCallJson(ucRoot), output);
-        writeToFile(updateCenterPostMessageHtml(ucRoot), new File(output.getPath()+".html"));
+        if (!prettyPrint)
+            entries = new SplicedEntries();
+        buildUpdateCenter(repo);
 
         if (!skipReleaseHistory) {
             JSONObject rhRoot = buildFullReleaseHistory(repo);
@@ -188,21 +277,88 @@ public class Main {
             writeToFile(rh, releaseHistory);
         }
 
+        if (!segments.isEmpty())
+            buildSegments();
+
+        // the latest-by-date check is still going on in the background, and the snapshot has to have it all
+        enrichment.await();
+
+        if (snapshot!=null)
+            CatalogSnapshot.write(getBaseRepository(), snapshot);
+
+        // everything has been written by now, so this no longer holds anything up
+        ConfluencePluginList.awaitBackgroundRefreshes();
+
+        System.out.println("Remote hosts:");
+        RemoteHost.report(System.out);
+    }
+
+    /**
+     * Writes update-center.json, its HTML variant and the latest permalinks.
+     */
+    private void buildUpdateCenter(MavenRepository repo) throws Exception {
+        LatestLinkBuilder latest = createHtaccessWriter();
+
+        JSONObject ucRoot = buildUpdateCenterJson(repo, latest);
+        String json = entries!=null ? entries.toString(ucRoot) : prettyPrintJson(ucRoot);
+        writeToFile(updateCenterPostCallJson(json), output);
+        writeToFile(updateCenterPostMessageHtml(json), new File(output.getPath()+".html"));
+
         latest.close();
     }
 
-    String updateCenterPostCallJson(JSONObject ucRoot) {
-        return "updateCenter.post(" + EOL + prettyPrintJson(ucRoot) + EOL + ");";
+    /**
+     * Generates the {@link #segments}. Releases are classified for all of them at once by {@link SegmentIndex},
+     * and they share the repository, so what was resolved for one segment isn't resolved again for the next.
+     */
+    private void buildSegments() throws Exception {
+        List<Segment> parsed = parseSegments(segments);
+
+        MavenRepository base = getBaseRepository();
+        SegmentIndex index = new SegmentIndex(base, parsed);
+
+        for (Segment s : parsed) {
+            File dir = new File(www.getAbsoluteFile().getParentFile(), s.name);
+            System.out.println("Generating segment "+s.name+" into "+dir);
+
+            Main m = new Main();
+            m.id = id;
+            m.connectionCheckUrl = connectionCheckUrl;
+            m.prettyPrint = prettyPrint;
+            m.latestMapPrefix = latestMapPrefix;
+            m.signer = signer;
+            m.catalog = catalog;
+            m.entries = entries;
+            m.www = dir;
+            m.prepareStandardDirectoryLayout();
+            m.buildUpdateCenter(new SegmentMavenRepository(base, index, s));
+        }
+
+        if (routingMap!=null) {
+            List<String> coreVersions = new ArrayList<String>();
+            for (HudsonWar w : base.getHudsonWar().values())
+                coreVersions.add(w.version);
+            File dir = www.getAbsoluteFile().getParentFile();
+            System.out.println("Writing the routing table "+routingMap+" to "+dir);
+            new VersionRoutes(parsed, coreVersions).write(dir, routingMap);
+        }
+    }
+
+    String updateCenterPostCallJson(String ucRoot) {
+        return "updateCenter.post(" + EOL + ucRoot + EOL + ");";
     }
 
-    String updateCenterPostMessageHtml(JSONObject ucRoot) {
+    String updateCenterPostMessageHtml(String ucRoot) {
         // needs the DOCTYPE to make JSON.stringify work on IE8
-        return "\uFEFF<!DOCTYPE html><html><head><meta http-equiv='Content-Type' content='text/html;charset=UTF-8' /></head><body><script>window.onload = function () { window.parent.postMessage(JSON.stringify(" + EOL + prettyPrintJson(ucRoot) + EOL + "),'*'); };</script></body></html>";
+        return "\uFEFF<!DOCTYPE html><html><head><meta http-equiv='Content-Type' content='text/html;charset=UTF-8' /></head><body><script>window.onload = function () { window.parent.postMessage(JSON.stringify(" + EOL + ucRoot + EOL + "),'*'); };</script></body></html>";
     }
 
     private LatestLinkBuilder createHtaccessWriter() throws IOException {
         latest.mkdirs();
-        return new LatestLinkBuilder(latest);
+        String mapName = null;
+        if (latestMapPrefix!=null)
+            mapName = www!=null ? latestMapPrefix+www.getName() : latestMapPrefix;
+        return new LatestLinkBuilder(latest, mapName);
     }
 
     private JSONObject buildUpdateCenterJson(MavenRepository repo, LatestLinkBuilder latest) throws Exception {
@@ -217,7 +373,7 @@ public class Main {
             root.put("connectionCheckUrl",connectionCheckUrl);
 
         if (signer.isConfigured())
-            signer.sign(root);
+            signer.sign(root, entries);
 
         return root;
     }
@@ -232,10 +388,45 @@ public class Main {
         return prettyPrint? json.toString(2): json.toString();
     }
 
+    /**
+     * The repository before any caps or filters are applied, shared by the main update center and the segments.
+     */
+    protected MavenRepository getBaseRepository() throws Exception {
+        if (baseRepository==null) {
+            MavenRepository repo;
+            if (!fromSnapshot.isEmpty()) {
+                catalog = CatalogSnapshot.read(fromSnapshot);
+                repo = catalog.getRepository();
+            } else {
+                repo = DefaultMavenRepositoryBuilder.createStandardInstance();
+            }
+            if (maxPlugins!=null)
+                repo = new TruncatedMavenRepository(repo,maxPlugins);
+            if (shard!=null)
+                repo = ShardedMavenRepository.parse(repo, shard);
+            baseRepository = repo;
+        }
+        return baseRepository;
+    }
+
+    private MavenRepository baseRepository;
+
+    /**
+     * What we render from with {@link #fromSnapshot}, or null.
+     */
+    private CatalogSnapshot catalog;
+
+    /**
+     * The wiki, or what the snapshot recorded of it.
+     */
+    private ConfluencePluginList createConfluencePluginList() throws Exception {
+        if (catalog!=null)
+            return catalog.createPluginList();
+        return new ConfluencePluginList();
+    }
+
     protected MavenRepository createRepository() throws Exception {
-        MavenRepository repo = DefaultMavenRepositoryBuilder.createStandardInstance();
-        if (maxPlugins!=null)
-            repo = new TruncatedMavenRepository(repo,maxPlugins);
+        MavenRepository repo = getBaseRepository();
         if (capPlugin !=null || getCapCore()!=null) {
             VersionNumber vp = capPlugin==null ? ANY_VERSION : new VersionNumber(capPlugin);
             VersionNumber vc = getCapCore()==null ? ANY_VERSION : new VersionNumber(getCapCore());
@@ -254,7 +445,7 @@ public class Main {
      * @param latest
      */
     protected JSONObject buildPlugins(MavenRepository repository, LatestLinkBuilder latest) throws Exception {
-        ConfluencePluginList cpl = new ConfluencePluginList();
+        ConfluencePluginList cpl = createConfluencePluginList();
 
         final boolean isVersionCappedRepository = isVersionCappedRepository(repository);
 
@@ -305,9 +496,15 @@ public class Main {
                     }
                 }
 
-                JSONObject json = plugin.toJSON();
-                System.out.println("=> " + json);
-                plugins.put(plugin.artifactId, json);
+                if (entries!=null) {
+                    SplicedEntries.Entry e = entries.get(plugin);
+                    System.out.println("=> " + e);
+                    plugins.put(plugin.artifactId, e.getPlaceholder());
+                } else {
+                    JSONObject json = plugin.toJSON();
+                    System.out.println("=> " + json);
+                    plugins.put(plugin.artifactId, json);
+                }
                 latest.add(plugin.artifactId+".hpi", plugin.latest.getURL().getPath());
 
                 if (download!=null) {
@@ -385,7 +582,7 @@ public class Main {
     }
 
     protected JSONArray buildReleaseHistory(MavenRepository repository) throws Exception {
-        ConfluencePluginList cpl = new ConfluencePluginList();
+        ConfluencePluginList cpl = createConfluencePluginList();
 
         JSONArray releaseHistory = new JSONArray();
         for( Map.Entry<Date,Map<String,HPI>> relsOnDate : repository.listHudsonPluginsByReleaseDate().entrySet() ) {
@@ -417,7 +614,7 @@ public class Main {
                     o.put("wiki", "");
                 }
 
-                PluginHistory history = h.history;
+                PluginHistory history = repository.findPluginHistory(rel.getKey());
                 if (history.latest()==h)
                     o.put("latestRelease",true);
                 if (history.first()==h)
@@ -439,7 +636,7 @@ public class Main {
         List<MavenArtifact> list = new ArrayList<MavenArtifact>(versions);
         Collections.sort(list,new Comparator<MavenArtifact>() {
             public int compare(MavenArtifact o1, MavenArtifact o2) {
-                return -o1.getVersion().compareTo(o2.getVersion());
+                return o2.getVersionKey().compareTo(o1.getVersionKey());
             }
         });
 
@@ -498,6 +695,9 @@ public class Main {
         if (repository instanceof VersionCappedMavenRepository) {
             return true;
         }
+        if (repository instanceof SegmentMavenRepository && ((SegmentMavenRepository)repository).segment.capPlugin!=null) {
+            return true;
+        }
         if (repository.getBaseRepository() == null) {
             return false;
         }
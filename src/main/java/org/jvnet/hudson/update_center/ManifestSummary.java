@@ -0,0 +1,59 @@
+package org.jvnet.hudson.update_center;
+
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * The main attributes of a plugin manifest that end up in the update center.
+ *
+ * <p>
+ * A full {@link Manifest} holds every attribute of every entry, including the per-class digests
+ * of signed jars. We keep one of these per plugin version instead.
+ */
+public final class ManifestSummary {
+    private final String[] values = new String[NAMES.length];
+
+    public ManifestSummary(Manifest manifest) {
+        Attributes main = manifest.getMainAttributes();
+        for (int i=0; i<NAMES.length; i++) {
+            String v = main.getValue(NAMES[i]);
+            // the same core versions, dependency lists and developer lists repeat across versions and plugins
+            values[i] = v==null ? null : v.intern();
+        }
+    }
+
+    /**
+     * Recreates a summary from {@link #getValues()}.
+     */
+    ManifestSummary(String[] values) {
+        if (values.length!=NAMES.length)
+            throw new IllegalArgumentException("Expected "+NAMES.length+" values but got "+values.length);
+        for (int i=0; i<NAMES.length; i++)
+            this.values[i] = values[i]==null ? null : values[i].intern();
+    }
+
+    String[] getValues() {
+        return values.clone();
+    }
+
+    /**
+     * Returns the value of the given main attribute, or null if it's absent or not one we keep.
+     */
+    public String getValue(String name) {
+        for (int i=0; i<NAMES.length; i++)
+            if (NAMES[i].equals(name))
+                return values[i];
+        return null;
+    }
+
+    private static final String[] NAMES = {
+        "Built-By",
+        "Hudson-Version",
+        "Jenkins-Version",
+        "Compatible-Since-Version",
+        "Long-Name",
+        "Sandbox-Status",
+        "Plugin-Dependencies",
+        "Plugin-Developers",
+    };
+}
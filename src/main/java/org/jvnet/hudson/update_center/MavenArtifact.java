@@ -27,7 +27,6 @@ import hudson.util.VersionNumber;
 import net.sf.json.JSONObject;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
-import org.sonatype.nexus.index.ArtifactInfo;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -40,7 +39,6 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
@@ -55,21 +53,23 @@ public class MavenArtifact {
      * Where did this plugin come from?
      */
     public final MavenRepository repository;
-    public final ArtifactInfo artifact;
+    public final ArtifactCoordinates artifact;
     public final String version;
     private File hpi;
 
     // lazily computed
     private long timestamp;
-    private Manifest manifest;
+    private ManifestSummary manifest;
+    private VersionKey versionKey;
+    private String digest;
 
-    public MavenArtifact(MavenRepository repository, ArtifactInfo artifact) {
+    public MavenArtifact(MavenRepository repository, ArtifactCoordinates artifact) {
         this.artifact = artifact;
         this.repository = repository;
         version = artifact.version;
     }
 
-    public File resolve() throws IOException {
+    public synchronized File resolve() throws IOException {
         try {
             if (hpi==null)
                 hpi = repository.resolve(artifact);
@@ -121,7 +121,13 @@ public class MavenArtifact {
     /**
      * Computes the SHA1 signature of the file.
      */
-    public String getDigest() throws IOException {        
+    public synchronized String getDigest() throws IOException {
+        if (digest==null)
+            digest = computeDigest();
+        return digest;
+    }
+
+    private String computeDigest() throws IOException {
         try (FileInputStream fin = new FileInputStream(resolve())) {
             MessageDigest sig = MessageDigest.getInstance("SHA1");            
             byte[] buf = new byte[2048];
@@ -148,7 +154,16 @@ public class MavenArtifact {
     }
 
     public VersionNumber getVersion() {
-        return new VersionNumber(version);
+        return getVersionKey().toVersionNumber();
+    }
+
+    /**
+     * The version, parsed once. Use this for sorting and comparisons.
+     */
+    public VersionKey getVersionKey() {
+        if (versionKey==null)
+            versionKey = VersionKey.of(version);
+        return versionKey;
     }
 
     public boolean isAlphaOrBeta() {
@@ -182,30 +197,78 @@ public class MavenArtifact {
         return new SimpleDateFormat("MMM dd, yyyy", Locale.US);
     }
         
-    public long getTimestamp() throws IOException {
+    public synchronized long getTimestamp() throws IOException {
         if (timestamp==0)
-            getManifest();
+            getManifestSummary();
         return timestamp;
     }
 
+    /**
+     * Reads the whole manifest from the artifact. This isn't cached; see {@link #getManifestSummary()}.
+     */
     public Manifest getManifest() throws IOException {
-        if (manifest==null) {
-            File f = resolve();
+        return readManifest().manifest;
+    }
+
+    /**
+     * Reads the manifest and its time, leaving the fields alone, so that it's safe to call without holding the lock.
+     */
+    private ZipManifest readManifest() throws IOException {
+        File f = resolve();
+        try {
+            ZipManifest m = ZipManifest.read(f);
+            if (m!=null)
+                return m;
+
+            JarFile jar = new JarFile(f);
             try {
-                JarFile jar = new JarFile(f);
                 ZipEntry e = jar.getEntry("META-INF/MANIFEST.MF");
-                timestamp = e.getTime();
-                manifest = jar.getManifest();
+                return new ZipManifest(jar.getManifest(), e.getTime());
+            } finally {
                 jar.close();
-            } catch (IOException x) {
-                throw (IOException)new IOException("Failed to open "+f).initCause(x);
             }
+        } catch (IOException x) {
+            throw (IOException)new IOException("Failed to open "+f).initCause(x);
+        }
+    }
+
+    /**
+     * The manifest attributes we use, kept around after the first access.
+     */
+    public synchronized ManifestSummary getManifestSummary() throws IOException {
+        if (manifest==null) {
+            ZipManifest m = readManifest();
+            timestamp = m.time;
+            manifest = new ManifestSummary(m.manifest);
         }
         return manifest;
     }
 
-    public Attributes getManifestAttributes() throws IOException {
-        return getManifest().getMainAttributes();
+    /**
+     * What we know about this artifact without going to the repository, for {@link CatalogSnapshot}.
+     *
+     * This never reads the artifact, even if it has been resolved already.
+     *
+     * @return null if {@link #getDigest()} hasn't been computed, i.e. the artifact hasn't been rendered.
+     */
+    synchronized String getKnownDigest() {
+        return digest;
+    }
+
+    /**
+     * @return null if the manifest hasn't been read.
+     */
+    synchronized ManifestSummary getKnownManifestSummary() {
+        return manifest;
+    }
+
+    /**
+     * Restores what {@link CatalogSnapshot} recorded, so that the artifact is never resolved for these.
+     */
+    synchronized void restore(long timestamp, ManifestSummary manifest, String digest) {
+        this.timestamp = timestamp;
+        this.manifest = manifest;
+        this.digest = digest;
     }
 
     /**
@@ -4,13 +4,17 @@ import hudson.util.VersionNumber;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
 import org.codehaus.plexus.PlexusContainerException;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
-import org.sonatype.nexus.index.ArtifactInfo;
 import org.sonatype.nexus.index.context.UnsupportedExistingLuceneIndexException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -23,10 +27,53 @@ public abstract class MavenRepository {
 
     protected MavenRepository base;
 
+    /**
+     * Memoized result of {@link #scanHudsonPlugins()}.
+     */
+    private Collection<PluginHistory> plugins;
+
+    /**
+     * Indices over {@link #plugins}, built along with it.
+     * Keyed by {@link MavenArtifact#getGavId()} and by the lower-cased artifact ID respectively.
+     */
+    private Map<String,HPI> pluginsByGav;
+    private Map<String,PluginHistory> pluginsByArtifactId;
+
     /**
      * Discover all plugins from this Maven repository.
+     *
+     * <p>
+     * The listing is computed once and then shared by every caller for the rest of the run,
+     * so that the {@link HPI}s keep what they have resolved and parsed so far.
+     */
+    public final synchronized Collection<PluginHistory> listHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        if (plugins==null) {
+            List<PluginHistory> all = new ArrayList<PluginHistory>(scanHudsonPlugins());
+
+            Map<String,HPI> byGav = new HashMap<String,HPI>();
+            Map<String,PluginHistory> byArtifactId = new HashMap<String,PluginHistory>();
+            for (PluginHistory p : all) {
+                byArtifactId.put(p.artifactId.toLowerCase(Locale.ENGLISH), p);
+                for (HPI h : p.artifacts.values())
+                    byGav.put(h.getGavId(), h);
+            }
+
+            pluginsByGav = byGav;
+            pluginsByArtifactId = byArtifactId;
+            plugins = Collections.unmodifiableList(all);
+        }
+        return plugins;
+    }
+
+    /**
+     * Actually discovers all plugins, called once by {@link #listHudsonPlugins()}.
+     *
+     * <p>
+     * Decorators get the listing of their {@link #base} repository, which is shared with others,
+     * so they must not modify it. Use {@link PluginHistory#filter(java.util.function.Predicate)} to
+     * narrow down the histories.
      */
-    public abstract Collection<PluginHistory> listHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException;
+    protected abstract Collection<PluginHistory> scanHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException;
 
     /**
      * Discover all plugins from this Maven repository in order released, not using PluginHistory.
@@ -62,15 +109,19 @@ public abstract class MavenRepository {
      * @return the found HPI or null
      */
     public HPI findPlugin(String groupId, String artifactId, String version) throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
-        Collection<PluginHistory> all = listHudsonPlugins();
+        listHudsonPlugins();
+        return pluginsByGav.get(groupId+':'+artifactId+':'+version);
+    }
 
-        for (PluginHistory p : all) {
-            for (HPI h : p.artifacts.values()) {
-                if (h.isEqualsTo(groupId, artifactId, version))
-                  return h;
-            }
-        }
-        return null;
+    /**
+     * Finds the history of the specified plugin, as listed by {@link #listHudsonPlugins()}.
+     * Artifact IDs are matched case-insensitively, just like the listing groups them.
+     *
+     * @return the found history or null
+     */
+    public PluginHistory findPluginHistory(String artifactId) throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        listHudsonPlugins();
+        return pluginsByArtifactId.get(artifactId.toLowerCase(Locale.ENGLISH));
     }
 
 
@@ -79,11 +130,11 @@ public abstract class MavenRepository {
      */
     public abstract TreeMap<VersionNumber,HudsonWar> getHudsonWar() throws IOException, AbstractArtifactResolutionException;
 
-    protected File resolve(ArtifactInfo a) throws AbstractArtifactResolutionException {
+    protected File resolve(ArtifactCoordinates a) throws AbstractArtifactResolutionException {
         return resolve(a,a.packaging, null);
     }
 
-    protected abstract File resolve(ArtifactInfo a, String type, String classifier) throws AbstractArtifactResolutionException;
+    protected abstract File resolve(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException;
 
     /** Should be called by subclasses who are decorating an existing MavenRepository instance. */
     protected void setBaseRepository(MavenRepository base) {
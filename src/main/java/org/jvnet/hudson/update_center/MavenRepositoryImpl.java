@@ -24,6 +24,7 @@
 package org.jvnet.hudson.update_center;
 
 import hudson.util.VersionNumber;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -36,6 +37,7 @@ import org.apache.maven.artifact.repository.ArtifactRepositoryFactory;
 import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
 import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.artifact.transform.ArtifactTransformationManager;
 import org.apache.tools.ant.taskdefs.Expand;
@@ -68,11 +70,13 @@ import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 /**
  * Maven repository and its nexus index.
@@ -87,9 +91,25 @@ public class MavenRepositoryImpl extends MavenRepository {
     protected ArtifactResolver ar;
     protected List<ArtifactRepository> remoteRepositories = new ArrayList<ArtifactRepository>();
     protected ArtifactRepository local;
+    private File localDir;
     protected ArtifactRepositoryFactory arf;
     private PlexusContainer plexus;
     private boolean offlineIndex;
+    /**
+     * Throttles artifact downloads from the remote repositories and bounds how long they can take.
+     */
+    private RemoteHost remote;
+    /**
+     * Index directories by repository ID. They are only opened in {@link #indexer} if
+     * {@link #getRecords()} can't be answered from what an earlier run saved.
+     */
+    private final Map<String,File> indices = new LinkedHashMap<String,File>();
+    /**
+     * Identifies the versions of all the {@link #indices}, or null if one of them can't be told.
+     */
+    private StringBuilder indexVersions = new StringBuilder();
+    private IndexRecords records;
+    private final SingleFlight<String,File> resolutions = new SingleFlight<String,File>(RESOLVED);
 
     public MavenRepositoryImpl() throws Exception {
         ClassWorld classWorld = new ClassWorld( "plexus.core", MavenRepositoryImpl.class.getClassLoader() );
@@ -107,9 +127,11 @@ public class MavenRepositoryImpl extends MavenRepository {
         af = plexus.lookup(ArtifactFactory.class);
         ar = plexus.lookup(ArtifactResolver.class);
         arf = plexus.lookup(ArtifactRepositoryFactory.class);
+        RemoteHost.configureHttpClient();
 
+        localDir = new File(new File(System.getProperty("user.home")), ".m2/repository");
         local = arf.createArtifactRepository("local",
-                new File(new File(System.getProperty("user.home")), ".m2/repository").toURI().toURL().toExternalForm(),
+                localDir.toURI().toURL().toExternalForm(),
                 new DefaultRepositoryLayout(), POLICY, POLICY);
     }
 
@@ -137,10 +159,24 @@ public class MavenRepositoryImpl extends MavenRepository {
      *      URL of the Maven repository. Used to resolve artifacts.
      */
     public void addRemoteRepository(String id, File indexDirectory, URL repository) throws IOException, UnsupportedExistingLuceneIndexException {
-        indexer.addIndexingContext(id, id,null, indexDirectory,null,null, NexusIndexer.DEFAULT_INDEX);
+        addRemoteRepository(id, indexDirectory, null, repository);
+    }
+
+    /**
+     * @param version
+     *      Identifies the version of the index, or null if unknown.
+     */
+    private void addRemoteRepository(String id, File indexDirectory, String version, URL repository) {
+        indices.put(id, indexDirectory);
+        if (version==null)
+            indexVersions = null;
+        else if (indexVersions!=null)
+            indexVersions.append(id).append('@').append(version).append(' ');
         remoteRepositories.add(
                 arf.createArtifactRepository(id, repository.toExternalForm(),
                         new DefaultRepositoryLayout(), POLICY, POLICY));
+        if (remote==null)
+            remote = RemoteHost.forURL(repository);
     }
 
     public void addRemoteRepository(String id, URL repository) throws IOException, UnsupportedExistingLuceneIndexException {
@@ -148,44 +184,83 @@ public class MavenRepositoryImpl extends MavenRepository {
     }
 
     public void addRemoteRepository(String id, URL remoteIndex, URL repository) throws IOException, UnsupportedExistingLuceneIndexException {
-        addRemoteRepository(id,loadIndex(id,remoteIndex), repository);
+        File expanded = loadIndex(id,remoteIndex);
+        // each version of the index is expanded into its own directory, named after its Last-Modified
+        addRemoteRepository(id, expanded, expanded.getName().substring(EXPANDED.length()), repository);
     }
 
     /**
      * Loads a remote repository index (.zip or .gz), convert it to Lucene index and return it.
+     *
+     * <p>
+     * Other generators may be using the same index, so only one of us at a time updates it, and every version
+     * is expanded into its own directory, which is published by renaming it once complete. Directories of older
+     * versions are removed once no generator uses them anymore.
      */
-    private File loadIndex(String id, URL url) throws IOException, UnsupportedExistingLuceneIndexException {
-        File dir = new File(new File(System.getProperty("java.io.tmpdir")), "maven-index/" + id);
-        File local = new File(dir,"index"+getExtension(url));
-        File expanded = new File(dir,"expanded");
-
-        URLConnection con = url.openConnection();
-        if (url.getUserInfo()!=null) {
-            con.setRequestProperty("Authorization","Basic "+new sun.misc.BASE64Encoder().encode(url.getUserInfo().getBytes()));
+    private File loadIndex(final String id, final URL url) throws IOException, UnsupportedExistingLuceneIndexException {
+        final File dir = new File(new File(System.getProperty("java.io.tmpdir")), "maven-index/" + id);
+        dir.mkdirs();
+        try {
+            return ProcessLock.of(new File(dir, ".lock")).call(new Callable<File>() {
+                public File call() throws Exception {
+                    return loadIndex(id, url, dir);
+                }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (UnsupportedExistingLuceneIndexException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to load "+url, e);
         }
+    }
 
-        if (!expanded.exists() || !local.exists() || (local.lastModified()!=con.getLastModified() && !offlineIndex)) {
-            System.out.println("Downloading "+url);
-            // if the download fail in the middle, only leave a broken tmp file
-            dir.mkdirs();
-            File tmp = new File(dir,"index_"+getExtension(url));
-            FileOutputStream o = new FileOutputStream(tmp);
-            IOUtils.copy(con.getInputStream(), o);
-            o.close();
+    private File loadIndex(String id, final URL url, final File dir) throws IOException, UnsupportedExistingLuceneIndexException {
+        final File local = new File(dir,"index"+getExtension(url));
+        // if the download fail in the middle, only leave a broken tmp file
+        final File tmp = new File(dir,"index_"+getExtension(url));
+
+        // null if the locally cached copy is up to date
+        Long lastModified = RemoteHost.forURL(url).call(new Callable<Long>() {
+            public Long call() throws IOException {
+                URLConnection con = RemoteHost.openConnection(url);
+                if (url.getUserInfo()!=null) {
+                    con.setRequestProperty("Authorization","Basic "+new String(Base64.encodeBase64(url.getUserInfo().getBytes())));
+                }
+
+                if (local.exists() && getExpanded(dir, local.lastModified()).exists() && (local.lastModified()==con.getLastModified() || offlineIndex))
+                    return null;
+
+                System.out.println("Downloading "+url);
+                FileOutputStream o = new FileOutputStream(tmp);
+                try {
+                    IOUtils.copy(con.getInputStream(), o);
+                } finally {
+                    o.close();
+                }
+                return con.getLastModified();
+            }
+        });
 
-            if (expanded.exists())
-                FileUtils.deleteDirectory(expanded);
-            expanded.mkdirs();
+        File expanded;
+        if (lastModified!=null) {
+            expanded = getExpanded(dir, lastModified);
+            File staging = new File(dir, expanded.getName()+".tmp");
+            if (staging.exists())
+                FileUtils.deleteDirectory(staging);     // left behind by a generator that died
+            staging.mkdirs();
 
             if (url.toExternalForm().endsWith(".gz")) {
                 System.out.println("Reconstructing index from "+url);
-                FSDirectory directory = FSDirectory.getDirectory(expanded);
+                FSDirectory directory = FSDirectory.getDirectory(staging);
                 NexusIndexWriter w = new NexusIndexWriter(directory, new NexusAnalyzer(), true);
                 FileInputStream in = new FileInputStream(tmp);
                 try {
                     IndexDataReader dr = new IndexDataReader(in);
                     IndexDataReadResult result = dr.readIndex(w,
-                            new DefaultIndexingContext(id,id,null,expanded,null,null,NexusIndexer.DEFAULT_INDEX,true));
+                            new DefaultIndexingContext(id,id,null,staging,null,null,NexusIndexer.DEFAULT_INDEX,true));
                 } finally {
                     IndexUtils.close(w);
                     IOUtils.closeQuietly(in);
@@ -195,22 +270,64 @@ public class MavenRepositoryImpl extends MavenRepository {
             if (url.toExternalForm().endsWith(".zip")) {
                 Expand e = new Expand();
                 e.setSrc(tmp);
-                e.setDest(expanded);
+                e.setDest(staging);
                 e.execute();
             } else {
                 throw new UnsupportedOperationException("Unsupported index format: "+url);
             }
 
+            publish(staging, expanded);
+
             // as a proof that the expansion was properly completed
             tmp.renameTo(local);
-            local.setLastModified(con.getLastModified());
+            local.setLastModified(lastModified);
         } else {
+            expanded = getExpanded(dir, local.lastModified());
             System.out.println("Reusing the locally cached "+url+" at "+local);
         }
 
+        ProcessLock.holdShared(new File(dir, expanded.getName()+".lock"));
+        removeUnusedIndices(dir);
         return expanded;
     }
 
+    /**
+     * The directory that the index with the given Last-Modified is expanded into.
+     */
+    static File getExpanded(File dir, long lastModified) {
+        return new File(dir, EXPANDED+lastModified);
+    }
+
+    /**
+     * Makes the completely expanded staging directory the given version of the index, unless it's there already.
+     */
+    static void publish(File staging, File expanded) throws IOException {
+        if (expanded.exists()) {
+            // the same version, which someone may be using already
+            FileUtils.deleteDirectory(staging);
+        } else if (!staging.renameTo(expanded)) {
+            throw new IOException("Failed to rename "+staging+" to "+expanded);
+        }
+    }
+
+    /**
+     * Removes the expanded indices that no generator holds with {@link ProcessLock#holdShared(File)}.
+     */
+    static void removeUnusedIndices(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files==null)    return;
+        for (File f : files) {
+            if (!f.isDirectory() || !f.getName().startsWith(EXPANDED))
+                continue;
+            File lock = new File(dir, f.getName()+".lock");
+            if (ProcessLock.isUsed(lock))
+                continue;
+            System.out.println("Removing the unused index "+f);
+            FileUtils.deleteDirectory(f);
+            lock.delete();
+        }
+    }
+
     private static String getExtension(URL url) {
         String s = url.toExternalForm();
         int idx = s.lastIndexOf('.');
@@ -218,13 +335,107 @@ public class MavenRepositoryImpl extends MavenRepository {
         else        return s.substring(idx);
     }
 
-    protected File resolve(ArtifactInfo a, String type, String classifier) throws AbstractArtifactResolutionException {
-        Artifact artifact = af.createArtifactWithClassifier(a.groupId, a.artifactId, a.version, type, classifier);
-        ar.resolve(artifact, remoteRepositories, local);
-        return artifact.getFile();
+    /**
+     * Whoever needs the same file while it's being resolved waits for it, rather than resolving it again:
+     * release history and plugins need the same HPIs, many plugins share the same parent POMs,
+     * and segments the same wars.
+     *
+     * <p>
+     * Other generators may share the local repository, and Maven downloads to the same temporary file
+     * whoever does it, so the download happens under a lock, one of {@link #LOCK_STRIPES} shared by all artifacts.
+     */
+    protected File resolve(final ArtifactCoordinates a, final String type, final String classifier) throws AbstractArtifactResolutionException {
+        String key = a.groupId+':'+a.artifactId+':'+a.version+':'+type+':'+classifier;
+        final File lock = new File(localDir, ".update-center2-locks/"+(key.hashCode() & (LOCK_STRIPES-1))+".lock");
+        try {
+            return resolutions.get(key, new Callable<File>() {
+                public File call() throws Exception {
+                    return ProcessLock.of(lock).call(new Callable<File>() {
+                        public File call() throws AbstractArtifactResolutionException {
+                            return download(a, type, classifier);
+                        }
+                    });
+                }
+            });
+        } catch (AbstractArtifactResolutionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // interrupted while waiting for another thread, or the lock couldn't be taken
+            throw new ArtifactResolutionException(e.toString(),
+                    af.createArtifactWithClassifier(a.groupId, a.artifactId, a.version, type, classifier), e);
+        }
+    }
+
+    private File download(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException {
+        final Artifact artifact = af.createArtifactWithClassifier(a.groupId, a.artifactId, a.version, type, classifier);
+        if (remote==null || new File(localDir, local.pathOf(artifact)).exists()) {
+            // releases in the local repository are used as they are, so this doesn't go to the remote host,
+            // and must not count as a request to it: its near-zero latency would skew the limiter's baseline
+            ar.resolve(artifact, remoteRepositories, local);
+            return artifact.getFile();
+        }
+
+        try {
+            return remote.call(new Callable<File>() {
+                public File call() throws Exception {
+                    ar.resolve(artifact, remoteRepositories, local);
+                    return artifact.getFile();
+                }
+            });
+        } catch (IOException e) {
+            if (e.getCause() instanceof AbstractArtifactResolutionException)
+                throw (AbstractArtifactResolutionException)e.getCause();
+            throw new ArtifactResolutionException(e.getMessage(), artifact, e);
+        }
+    }
+
+    /**
+     * The records of the index that we use, from the file saved by an earlier run against the same indices if possible.
+     */
+    private synchronized IndexRecords getRecords() throws IOException, UnsupportedExistingLuceneIndexException {
+        if (records==null) {
+            String key = indexVersions==null ? null : indexVersions+"ignores@"+IGNORE.hashCode();
+            if (key!=null) {
+                records = IndexRecords.load(RECORDS, key);
+                if (records!=null)
+                    System.out.println("Reusing the index records in "+RECORDS);
+            }
+            if (records==null) {
+                for (Map.Entry<String,File> e : indices.entrySet())
+                    indexer.addIndexingContext(e.getKey(), e.getKey(), null, e.getValue(), null, null, NexusIndexer.DEFAULT_INDEX);
+
+                IndexRecords r = new IndexRecords(key);
+                r.put(PLUGINS, searchPlugins());
+                for (String groupId : WAR_GROUP_IDS)
+                    r.put(WARS+groupId, searchWars(groupId));
+                if (key!=null)
+                    r.save(RECORDS);
+                records = r;
+            }
+        }
+        return records;
     }
 
-    public Collection<PluginHistory> listHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+    protected Collection<PluginHistory> scanHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        Map<String, PluginHistory> plugins =
+            new TreeMap<String, PluginHistory>(String.CASE_INSENSITIVE_ORDER);
+
+        for (ArtifactInfo a : getRecords().get(PLUGINS)) {
+            PluginHistory p = plugins.get(a.artifactId);
+            if (p==null)
+                plugins.put(a.artifactId, p=new PluginHistory(a.artifactId));
+            p.addArtifact(createHpiArtifact(a, p));
+            p.groupId.add(a.groupId);
+        }
+        return plugins.values();
+    }
+
+    /**
+     * Plugin releases in the index, except those we ignore.
+     */
+    private List<ArtifactInfo> searchPlugins() throws IOException {
         BooleanQuery q = new BooleanQuery();
         q.setMinimumNumberShouldMatch(1);
         q.add(indexer.constructQuery(ArtifactInfo.PACKAGING,"hpi"), Occur.SHOULD);
@@ -233,9 +444,7 @@ public class MavenRepositoryImpl extends MavenRepository {
         FlatSearchRequest request = new FlatSearchRequest(q);
         FlatSearchResponse response = indexer.searchFlat(request);
 
-        Map<String, PluginHistory> plugins =
-            new TreeMap<String, PluginHistory>(String.CASE_INSENSITIVE_ORDER);
-
+        List<ArtifactInfo> r = new ArrayList<ArtifactInfo>();
         Set<String> excluded = new HashSet<String>();
         for (ArtifactInfo a : response.getResults()) {
             if (a.version.contains("SNAPSHOT"))     continue;       // ignore snapshots
@@ -251,24 +460,44 @@ public class MavenRepositoryImpl extends MavenRepository {
                 System.out.println("=> Ignoring " + a.artifactId + ", version " + a.version + " because this version is blacklisted");
                 continue;
             }
+            r.add(a);
+        }
+        return r;
+    }
 
-            PluginHistory p = plugins.get(a.artifactId);
-            if (p==null)
-                plugins.put(a.artifactId, p=new PluginHistory(a.artifactId));
-            p.addArtifact(createHpiArtifact(a, p));
-            p.groupId.add(a.groupId);
+    /**
+     * The listing is computed once, so that the {@link HudsonWar}s keep what they have resolved,
+     * just like {@link #listHudsonPlugins()} does for plugins. Callers get their own copy of the map.
+     */
+    public synchronized TreeMap<VersionNumber,HudsonWar> getHudsonWar() throws IOException, AbstractArtifactResolutionException {
+        if (wars==null) {
+            TreeMap<VersionNumber,HudsonWar> r = new TreeMap<VersionNumber, HudsonWar>(VersionNumber.DESCENDING);
+            try {
+                listWar(r, "org.jenkins-ci.main", null);
+                listWar(r, "org.jvnet.hudson.main", CUT_OFF_KEY);
+            } catch (UnsupportedExistingLuceneIndexException e) {
+                throw (IOException)new IOException("Failed to open the index").initCause(e);
+            }
+            wars = r;
         }
-        return plugins.values();
+        return new TreeMap<VersionNumber, HudsonWar>(wars);
     }
 
-    public TreeMap<VersionNumber,HudsonWar> getHudsonWar() throws IOException, AbstractArtifactResolutionException {
-        TreeMap<VersionNumber,HudsonWar> r = new TreeMap<VersionNumber, HudsonWar>(VersionNumber.DESCENDING);
-        listWar(r, "org.jenkins-ci.main", null);
-        listWar(r, "org.jvnet.hudson.main", CUT_OFF);
-        return r;
+    private TreeMap<VersionNumber,HudsonWar> wars;
+
+    private void listWar(TreeMap<VersionNumber, HudsonWar> r, String groupId, VersionKey cap) throws IOException, UnsupportedExistingLuceneIndexException {
+        for (ArtifactInfo a : getRecords().get(WARS+groupId)) {
+            HudsonWar war = createHudsonWarArtifact(a);
+            if (cap!=null && war.getVersionKey().compareTo(cap)>0) continue;
+
+            r.put(war.getVersion(), war);
+        }
     }
 
-    private void listWar(TreeMap<VersionNumber, HudsonWar> r, String groupId, VersionNumber cap) throws IOException {
+    /**
+     * Core releases of the given group ID in the index.
+     */
+    private List<ArtifactInfo> searchWars(String groupId) throws IOException {
         BooleanQuery q = new BooleanQuery();
         q.add(indexer.constructQuery(ArtifactInfo.GROUP_ID,groupId), Occur.MUST);
         q.add(indexer.constructQuery(ArtifactInfo.PACKAGING,"war"), Occur.MUST);
@@ -276,17 +505,16 @@ public class MavenRepositoryImpl extends MavenRepository {
         FlatSearchRequest request = new FlatSearchRequest(q);
         FlatSearchResponse response = indexer.searchFlat(request);
 
+        List<ArtifactInfo> r = new ArrayList<ArtifactInfo>();
         for (ArtifactInfo a : response.getResults()) {
             if (a.version.contains("SNAPSHOT"))     continue;       // ignore snapshots
             if (a.version.contains("JENKINS"))      continue;       // non-public releases for addressing specific bug fixes
             if (!a.artifactId.equals("jenkins-war")
              && !a.artifactId.equals("hudson-war"))  continue;      // somehow using this as a query results in 0 hits.
             if (a.classifier!=null)  continue;          // just pick up the main war
-            if (cap!=null && new VersionNumber(a.version).compareTo(cap)>0) continue;
-
-            VersionNumber v = new VersionNumber(a.version);
-            r.put(v, createHudsonWarArtifact(a));
+            r.add(a);
         }
+        return r;
     }
 
 /*
@@ -294,11 +522,11 @@ public class MavenRepositoryImpl extends MavenRepository {
  */
 
     protected HPI createHpiArtifact(ArtifactInfo a, PluginHistory p) throws AbstractArtifactResolutionException {
-        return new HPI(this,p,a);
+        return new HPI(this,p,ArtifactCoordinates.of(a));
     }
 
     protected HudsonWar createHudsonWarArtifact(ArtifactInfo a) {
-        return new HudsonWar(this,a);
+        return new HudsonWar(this,ArtifactCoordinates.of(a));
     }
 
     private static final Properties IGNORE = new Properties();
@@ -311,10 +539,32 @@ public class MavenRepositoryImpl extends MavenRepository {
         }
     }
 
+    /**
+     * Where {@link #getRecords()} are kept between runs.
+     */
+    private static final File RECORDS = new File(new File(System.getProperty("java.io.tmpdir")), "maven-index/records");
+
+    private static final String EXPANDED = "expanded-";
+
+    /**
+     * Power of two.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private static final String PLUGINS = "plugins";
+    private static final String WARS = "wars:";
+    private static final String[] WAR_GROUP_IDS = {"org.jenkins-ci.main", "org.jvnet.hudson.main"};
+
+    /**
+     * How many resolved files {@link #resolve(ArtifactCoordinates, String, String)} remembers.
+     */
+    private static final int RESOLVED = Integer.getInteger(MavenRepositoryImpl.class.getName()+".resolved", 10000);
+
     protected static final ArtifactRepositoryPolicy POLICY = new ArtifactRepositoryPolicy(true, "daily", "warn");
 
     /**
      * Hudson -> Jenkins cut-over version.
      */
     public static final VersionNumber CUT_OFF = new VersionNumber("1.395");
+    public static final VersionKey CUT_OFF_KEY = VersionKey.of(CUT_OFF);
 }
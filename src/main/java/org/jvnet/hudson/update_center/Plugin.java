@@ -25,20 +25,11 @@ package org.jvnet.hudson.update_center;
 
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
-import org.apache.commons.lang.StringEscapeUtils;
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentFactory;
-import org.dom4j.Element;
-import org.dom4j.Node;
-import org.dom4j.io.SAXReader;
-import org.sonatype.nexus.index.ArtifactInfo;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
@@ -75,6 +66,12 @@ public class Plugin {
 
     private boolean pageDownloadFailed;
 
+    /**
+     * Set when something {@link #toJSON()} depends on couldn't be determined this time,
+     * so that the result isn't cached.
+     */
+    private boolean incomplete;
+
     /**
      * Confluence labels for the plugin wiki page.
      * Null if wiki page wasn't found.
@@ -87,29 +84,31 @@ public class Plugin {
      */
     private boolean deprecated = false;
 
-    private final SAXReader xmlReader;
-
     /**
-     * POM parsed as a DOM.
+     * What we need from the POM of the latest version. Null if it couldn't be parsed.
      */
-    private final Document pom;
+    private final PomFacts pom;
 
     public Plugin(String artifactId, HPI latest, HPI previous, ConfluencePluginList cpl) throws IOException {
         this.artifactId = artifactId;
         this.latest = latest;
         this.previous = previous;
-        this.xmlReader = createXmlReader();
         this.pom = readPOM();
         this.page = findPage(cpl);
     }
 
+    /**
+     * Only reads the latest and previous release that can be read; see {@link Enrichment} for the others.
+     */
     public Plugin(PluginHistory hpi, ConfluencePluginList cpl) throws IOException {
         this.artifactId = hpi.artifactId;
         List<HPI> versions = new ArrayList<HPI>();
         for (HPI h : hpi.artifacts.values()) {
             try {
-                h.getManifest();
+                h.getManifestSummary();
                 versions.add(h);
+                if (versions.size()==2)
+                    break;
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "Failed to resolve "+h+". Dropping this version.",e);
             }
@@ -118,10 +117,6 @@ public class Plugin {
         this.latest = versions.get(0);
         this.previous = versions.size()>1 ? versions.get(1) : null;
 
-        // Doublecheck that latest-by-version is also latest-by-date:
-        checkLatestDate(versions, latest);
-
-        this.xmlReader = createXmlReader();
         this.pom = readPOM();
         this.page = findPage(cpl);
     }
@@ -130,14 +125,16 @@ public class Plugin {
         this(hpi.artifact.artifactId, hpi,  null, cpl);
     }
 
-    private SAXReader createXmlReader() {
-        DocumentFactory factory = new DocumentFactory();
-        factory.setXPathNamespaceURIs(
-                Collections.singletonMap("m", "http://maven.apache.org/POM/4.0.0"));
-        return new SAXReader(factory);
-    }
-
-    private void checkLatestDate(Collection<HPI> artifacts, HPI latestByVersion) throws IOException {
+    /**
+     * Doublechecks that latest-by-version is also latest-by-date.
+     *
+     * @param artifacts
+     *      Releases whose manifests could be read, newest first.
+     */
+    static void checkLatestDate(List<HPI> artifacts) throws IOException {
+        if (artifacts.isEmpty())
+            return;
+        HPI latestByVersion = artifacts.get(0);
         TreeMap<Long,HPI> artifactsByDate = new TreeMap<Long,HPI>();
         for (HPI h : artifacts)
             artifactsByDate.put(h.getTimestamp(), h);
@@ -149,10 +146,10 @@ public class Plugin {
                 + latestByDate.version + ',' + latestByDate.getTimestampAsString() + ')');
     }
 
-    private Document readPOM() throws IOException {
+    private PomFacts readPOM() throws IOException {
         try {
-            return xmlReader.read(latest.resolvePOM());
-        } catch (DocumentException e) {
+            return PomFacts.of(latest);
+        } catch (XMLStreamException e) {
             System.err.println("** Can't parse POM for "+artifactId);
             e.printStackTrace();
             return null;
@@ -166,7 +163,7 @@ public class Plugin {
 
         // Otherwise read the wiki URL from the POM, if any
         if (url == null && pom != null) {
-            url = selectSingleValue(pom, "/project/url");
+            url = pom.url;
         }
         return url;
     }
@@ -199,17 +196,10 @@ public class Plugin {
         return null;
     }
 
-    private static Node selectSingleNode(Document pom, String path) {
-        Node result = pom.selectSingleNode(path);
-        if (result == null)
-            result = pom.selectSingleNode(path.replaceAll("/", "/m:"));
-        return result;
-    }
-
-    private static String selectSingleValue(Document dom, String path) {
-        Node node = selectSingleNode(dom, path);
-        return node != null ? ((Element)node).getTextTrim() : null;
-    }
+    /**
+     * How many levels of parent POMs to look into for scm/connection.
+     */
+    private static final int SCM_PARENT_LEVELS = Integer.getInteger(Plugin.class.getName()+".scmParentLevels", 1);
 
     private static final Pattern HOSTNAME_PATTERN =
         Pattern.compile("(?:://|scm:git:(?!\\w+://))(?:\\w*@)?([\\w.-]+)[/:]");
@@ -220,20 +210,13 @@ public class Plugin {
      */
     public String getScmHost() {
         if (pom != null) {
-            String scm = selectSingleValue(pom, "/project/scm/connection");
+            String scm = pom.scmConnection;
             if (scm == null) {
                 // Try parent pom
-                Element parent = (Element)selectSingleNode(pom, "/project/parent");
-                if (parent != null) try {
-                    Document parentPom = xmlReader.read(
-                            latest.repository.resolve(
-                                    new ArtifactInfo("",
-                                            parent.element("groupId").getTextTrim(),
-                                            parent.element("artifactId").getTextTrim(),
-                                            parent.element("version").getTextTrim(),
-                                            ""), "pom", null));
-                    scm = selectSingleValue(parentPom, "/project/scm/connection");
+                try {
+                    scm = pom.findScmConnection(latest.repository, SCM_PARENT_LEVELS);
                 } catch (Exception ex) {
+                    incomplete = true;
                     System.out.println("** Failed to read parent pom");
                     ex.printStackTrace();
                 }
@@ -281,30 +264,21 @@ public class Plugin {
         if(content==null)
             return null;
 
-        Matcher m = EXCERPT_PATTERN.matcher(content);
-        if(!m.find())
+        // TODO also had problems with Emma and Emma Code Coverage excerpts; was
+        // "excerpt": "Allows you to add a column that displays line coverage percentages based on EMMA. {info}This functionality is included and superseeded by the \uFEFF[JENKINS:JaCoCo Plugin] now\\!{info}",
+        // according to one source but the other lacked the anomalous BOM.
+        String excerpt = WikiExcerpt.toHtml(content);
+        if(excerpt==null)
             return null;
 
-        String excerpt = m.group(1);
-
-        // escape malicious HTML
-        excerpt = StringEscapeUtils.escapeHtml(excerpt);
-
-        String oneLiner = NEWLINE_PATTERN.matcher(excerpt).replaceAll(" ");
-        excerpt = HYPERLINK_PATTERN.matcher(oneLiner).replaceAll("<a href='$2'>$1</a>");
         if (latest.isAlphaOrBeta())
             excerpt = "<b>(This version is experimental and may change in backward-incompatible ways)</b> <br><br>"+excerpt;
         return excerpt;
     }
 
-    // Tweaking to ignore leading whitespace after the initial {excerpt}
-    private static final Pattern EXCERPT_PATTERN = Pattern.compile("\\{excerpt(?::hidden(?:=true)?)?\\}\\s*(.+)\\{excerpt\\}", Pattern.DOTALL);
-    private static final Pattern HYPERLINK_PATTERN = Pattern.compile("\\[([^|\\]]+)\\|([^|\\]]+)(|([^]])+)?\\]");
-    private static final Pattern NEWLINE_PATTERN = Pattern.compile("(?:\\r\\n|\\n)");
-
     /** @return The plugin name defined in the POM &lt;name>; falls back to the wiki page title, then artifact ID. */
     public String getName() {
-        String title = selectSingleValue(pom, "/project/name");
+        String title = pom != null ? pom.name : null;
         if (title == null && page != null) {
             title = page.getTitle();
             if ("Plugin Documentation Missing".equals(title)) {
@@ -333,7 +307,75 @@ public class Plugin {
         return pageDownloadFailed;
     }
 
+    /**
+     * Did rendering have to leave something out, because something it reads couldn't be read?
+     */
+    boolean isIncomplete() {
+        return incomplete;
+    }
+
+    /**
+     * Everything that {@link #toJSON()} depends on, or null if that isn't known for sure.
+     */
+    String getRenderingKey() throws IOException {
+        if (pageDownloadFailed)     return null;
+        return getRenderingKey(RENDERING_FORMAT, artifactId, latest, previous, pom, page);
+    }
+
+    /**
+     * Describes what a plugin is rendered from in the given {@link #RENDERING_FORMAT}.
+     *
+     * <p>
+     * Releases aren't supposed to change, but a redeployed one would keep its GAV, so what we read from
+     * the manifest and the POM goes in as well; it has all been read by the time we get here.
+     * The version of the wiki page stands for its content.
+     */
+    static String getRenderingKey(int format, String artifactId, HPI latest, HPI previous, PomFacts pom, WikiPage page) throws IOException {
+        StringBuilder b = new StringBuilder();
+        b.append(format).append('\n');
+        b.append(artifactId).append('\n');
+        b.append(latest.artifact).append('@').append(latest.getTimestamp()).append('\n');
+        for (String v : latest.getManifestSummary().getValues())
+            b.append(v).append('\n');
+        if (previous != null)
+            b.append(previous.artifact).append('@').append(previous.getTimestamp());
+        b.append('\n');
+        b.append(pom).append('\n');
+        b.append(OVERRIDES.getProperty(artifactId)).append('\n');
+        if (page != null) {
+            b.append(page.page.getId()).append(':').append(page.page.getVersion()).append('\n');
+            b.append(page.getUrl()).append('\n');
+            b.append(page.getTitle()).append('\n');
+            for (String label : page.getLabels())
+                b.append(label).append(',');
+        }
+        return b.toString();
+    }
+
+    /**
+     * Builds the JSON of this plugin, or reuses what a previous run built from the same inputs.
+     */
     public JSONObject toJSON() throws IOException {
+        return toJSON(RENDERED);
+    }
+
+    JSONObject toJSON(RenderedEntryCache rendered) throws IOException {
+        String key = getRenderingKey();
+        String cacheKey = key != null ? RenderedEntryCache.keyOf(key) : null;
+        if (cacheKey != null) {
+            String cached = rendered.get(cacheKey);
+            if (cached != null)
+                return JSONObject.fromObject(cached);
+        }
+
+        JSONObject json = render();
+
+        if (cacheKey != null && !incomplete)
+            rendered.put(cacheKey, json.toString());
+        return json;
+    }
+
+    private JSONObject render() throws IOException {
         JSONObject json = latest.toJSON(artifactId);
 
         SimpleDateFormat fisheyeDateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'.00Z'", Locale.US);
@@ -348,10 +390,7 @@ public class Plugin {
         if (page!=null) {
             json.put("wiki",page.getUrl());
             String excerpt = getExcerptInHTML();
-            // TODO also had problems with Emma and Emma Code Coverage excerpts; was
-            // "excerpt": "Allows you to add a column that displays line coverage percentages based on EMMA. {info}This functionality is included and superseeded by the \uFEFF[JENKINS:JaCoCo Plugin] now\\!{info}",
-            // according to one source but the other lacked the anomalous BOM.
-            if (excerpt!=null && !excerpt.startsWith("{"))
+            if (excerpt!=null)
                 json.put("excerpt",excerpt);
             String[] labelList = getLabels();
             if (labelList!=null)
@@ -364,7 +403,7 @@ public class Plugin {
 
         if (!json.has("excerpt")) {
             // fall back to <description>, which is plain text but still better than nothing.
-            String description = plainText2html(selectSingleValue(pom, "/project/description"));
+            String description = plainText2html(pom != null ? pom.description : null);
             if (description!=null)
                 json.put("excerpt",description);
         }
@@ -409,6 +448,13 @@ public class Plugin {
 
     private static final Properties OVERRIDES = new Properties();
 
+    /**
+     * Bump this when {@link #render()} changes, to invalidate what's been cached.
+     */
+    static final int RENDERING_FORMAT = 3;
+
+    private static final RenderedEntryCache RENDERED = new RenderedEntryCache("rendered-plugins");
+
     static {
         try {
             OVERRIDES.load(Plugin.class.getClassLoader().getResourceAsStream("wiki-overrides.properties"));
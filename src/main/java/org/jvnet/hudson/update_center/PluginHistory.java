@@ -32,6 +32,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Predicate;
 
 /**
  * Information about Hudson plugin and its release history, discovered from Maven repository.
@@ -53,6 +54,25 @@ public final class PluginHistory {
         this.artifactId = shortName;
     }
 
+    /**
+     * Creates a history that only contains the versions accepted by the given filter.
+     * The {@link HPI}s themselves are shared, along with everything they have resolved and cached so far.
+     *
+     * @return
+     *      null if no version is accepted.
+     */
+    public PluginHistory filter(Predicate<HPI> filter) {
+        PluginHistory r = new PluginHistory(artifactId);
+        for (Map.Entry<VersionNumber,HPI> e : artifacts.entrySet()) {
+            if (filter.test(e.getValue()))
+                r.artifacts.put(e.getKey(), e.getValue());
+        }
+        if (r.artifacts.isEmpty())
+            return null;
+        r.groupId.addAll(groupId);
+        return r;
+    }
+
     public HPI latest() {
         return artifacts.get(artifacts.firstKey());
     }
@@ -70,7 +90,7 @@ public final class PluginHistory {
     public void addArtifact(HPI hpi) {
         VersionNumber v;
         try {
-            v = new VersionNumber(hpi.version);
+            v = hpi.getVersion();
         } catch (NumberFormatException e) {
             System.out.println("Failed to parse version number "+hpi.version+" for "+hpi);
             return;
@@ -0,0 +1,279 @@
+package org.jvnet.hudson.update_center;
+
+import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The few things we read from a POM.
+ *
+ * <p>
+ * These are extracted in a single streaming pass, and kept by GAV both in memory for the rest of the run
+ * and in a {@link DiskCache}, since a released POM never changes. Many plugins share the same few parent POMs,
+ * so those are only ever resolved and parsed once.
+ * Values are trimmed and have their internal whitespace collapsed, like dom4j's {@code getTextTrim()} did.
+ * Namespaces are ignored, so POMs with and without the Maven namespace are read the same way.
+ */
+public final class PomFacts implements Serializable {
+    /**
+     * {@code /project/url}, or null.
+     */
+    public final String url;
+    /**
+     * {@code /project/name}, or null.
+     */
+    public final String name;
+    /**
+     * {@code /project/description}, or null.
+     */
+    public final String description;
+    /**
+     * {@code /project/scm/connection}, or null.
+     */
+    public final String scmConnection;
+
+    private final String parentGroupId, parentArtifactId, parentVersion;
+    private final boolean hasParent;
+
+    private PomFacts(String[] values, boolean hasParent) {
+        this.url = values[URL];
+        this.name = values[NAME];
+        this.description = values[DESCRIPTION];
+        this.scmConnection = values[SCM_CONNECTION];
+        this.parentGroupId = values[PARENT_GROUP_ID];
+        this.parentArtifactId = values[PARENT_ARTIFACT_ID];
+        this.parentVersion = values[PARENT_VERSION];
+        this.hasParent = hasParent;
+    }
+
+    /**
+     * Coordinates of the parent POM, or null if there's no parent.
+     *
+     * @throws IOException
+     *      if the parent is incompletely specified.
+     */
+    public ArtifactCoordinates getParent() throws IOException {
+        if (!hasParent)     return null;
+        if (parentGroupId==null || parentArtifactId==null || parentVersion==null)
+            throw new IOException("Incomplete parent "+parentGroupId+':'+parentArtifactId+':'+parentVersion);
+        return new ArtifactCoordinates(parentGroupId, parentArtifactId, parentVersion, "pom", null);
+    }
+
+    /**
+     * Everything we know about the POM, one per line, for {@link Plugin#getRenderingKey()}.
+     */
+    @Override
+    public String toString() {
+        return url+"\n"+name+"\n"+description+"\n"+scmConnection+"\n"
+                +(hasParent ? parentGroupId+':'+parentArtifactId+':'+parentVersion : null);
+    }
+
+    /**
+     * Finds {@code scm/connection} in this POM or, failing that, in up to {@code maxParents} levels of its parents.
+     *
+     * @return null if none of them has one.
+     */
+    public String findScmConnection(MavenRepository repository, int maxParents) throws IOException, XMLStreamException {
+        PomFacts p = this;
+        for (int i=0; ; i++) {
+            if (p.scmConnection!=null)  return p.scmConnection;
+            ArtifactCoordinates parent = p.getParent();
+            if (parent==null || i>=maxParents)  return null;
+            p = of(repository, parent);
+        }
+    }
+
+    /**
+     * Obtains the facts of the POM of the given artifact, from the caches if possible.
+     * This is safe to call from multiple threads.
+     *
+     * @throws IOException
+     *      if the POM couldn't be resolved.
+     * @throws XMLStreamException
+     *      if the POM isn't well-formed.
+     */
+    public static PomFacts of(MavenRepository repository, ArtifactCoordinates a) throws IOException, XMLStreamException {
+        String key = a.groupId+'/'+a.artifactId+'/'+a.version;
+        PomFacts facts = MEMORY.get(key);
+        if (facts!=null)    return facts;
+
+        // don't retry what already failed in this run, as hundreds of plugins can share a broken parent
+        Exception failure = FAILURES.get(key);
+        if (failure instanceof XMLStreamException)
+            throw new XMLStreamException("Previously failed to parse POM of "+a, (XMLStreamException)failure);
+        if (failure!=null)
+            throw (IOException)new IOException("Previously failed to resolve POM of "+a).initCause(failure);
+
+        facts = CACHE.get(key, PomFacts.class);
+        if (facts==null) {
+            try {
+                facts = parse(resolve(repository, a));
+            } catch (IOException e) {
+                FAILURES.putIfAbsent(key, e);
+                throw e;
+            } catch (XMLStreamException e) {
+                FAILURES.putIfAbsent(key, e);
+                throw e;
+            }
+            try {
+                CACHE.put(key, facts);
+            } catch (IOException e) {
+                System.out.println("** Failed to cache POM facts of "+a+": "+e);
+            }
+        }
+        PomFacts existing = MEMORY.putIfAbsent(key, facts);
+        return existing!=null ? existing : facts;
+    }
+
+    /**
+     * Everything that has been read so far in this run, keyed like {@link #remember(String, PomFacts)} takes it.
+     */
+    static Map<String,PomFacts> getKnown() {
+        return new HashMap<String,PomFacts>(MEMORY);
+    }
+
+    /**
+     * Makes {@link #of(MavenRepository, ArtifactCoordinates)} return the given facts without resolving the POM.
+     */
+    static void remember(String key, PomFacts facts) {
+        MEMORY.putIfAbsent(key, facts);
+    }
+
+    private static File resolve(MavenRepository repository, ArtifactCoordinates a) throws IOException {
+        try {
+            return repository.resolve(a, "pom", null);
+        } catch (AbstractArtifactResolutionException e) {
+            throw (IOException)new IOException("Failed to resolve POM of "+a).initCause(e);
+        }
+    }
+
+    public static PomFacts of(MavenArtifact a) throws IOException, XMLStreamException {
+        return of(a.repository, a.artifact);
+    }
+
+    public static PomFacts parse(File pom) throws IOException, XMLStreamException {
+        InputStream in = new BufferedInputStream(new FileInputStream(pom));
+        try {
+            return parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static PomFacts parse(InputStream in) throws XMLStreamException {
+        XMLStreamReader r = FACTORY.createXMLStreamReader(in);
+        try {
+            String[] values = new String[PATHS.length];
+            boolean hasParent = false;
+
+            // local names of the enclosing elements, as far down as we care
+            String[] path = new String[MAX_DEPTH+1];
+            int depth = 0;
+            int current = -1;       // index into PATHS of the element whose text we're collecting
+            StringBuilder text = new StringBuilder();
+
+            while (r.hasNext()) {
+                switch (r.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    if (depth<=MAX_DEPTH) {
+                        path[depth] = r.getLocalName();
+                        if (depth==2 && path[1].equals("project") && path[2].equals("parent"))
+                            hasParent = true;
+                        if (current<0) {
+                            int i = match(path, depth);
+                            if (i>=0 && values[i]==null) {
+                                current = i;
+                                text.setLength(0);
+                            }
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (current>=0 && depth==PATHS[current].length) {
+                        values[current] = collapseWhitespace(text);
+                        current = -1;
+                    }
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    // only the text directly inside the element, not that of nested elements
+                    if (current>=0 && depth==PATHS[current].length)
+                        text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                    break;
+                }
+            }
+            return new PomFacts(values, hasParent);
+        } finally {
+            r.close();
+        }
+    }
+
+    private static int match(String[] path, int depth) {
+        OUTER:
+        for (int i=0; i<PATHS.length; i++) {
+            String[] p = PATHS[i];
+            if (p.length!=depth)    continue;
+            for (int j=0; j<depth; j++)
+                if (!p[j].equals(path[j+1]))
+                    continue OUTER;
+            return i;
+        }
+        return -1;
+    }
+
+    private static String collapseWhitespace(CharSequence s) {
+        StringBuilder b = new StringBuilder(s.length());
+        StringTokenizer tokens = new StringTokenizer(s.toString());
+        while (tokens.hasMoreTokens()) {
+            if (b.length()>0)   b.append(' ');
+            b.append(tokens.nextToken());
+        }
+        return b.toString();
+    }
+
+    private static final int URL = 0, NAME = 1, DESCRIPTION = 2, SCM_CONNECTION = 3,
+            PARENT_GROUP_ID = 4, PARENT_ARTIFACT_ID = 5, PARENT_VERSION = 6;
+
+    private static final String[][] PATHS = {
+        {"project", "url"},
+        {"project", "name"},
+        {"project", "description"},
+        {"project", "scm", "connection"},
+        {"project", "parent", "groupId"},
+        {"project", "parent", "artifactId"},
+        {"project", "parent", "version"},
+    };
+
+    private static final int MAX_DEPTH = 3;
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private static final DiskCache CACHE = new DiskCache("pom");
+
+    private static final ConcurrentMap<String,PomFacts> MEMORY = new ConcurrentHashMap<String,PomFacts>();
+    private static final ConcurrentMap<String,Exception> FAILURES = new ConcurrentHashMap<String,Exception>();
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,121 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lock on a file, held against other threads of this process as well as other processes,
+ * so that several update center generators can share the same caches.
+ *
+ * <p>
+ * File locks are held by the whole JVM, and one JVM can't lock the same file twice, so there's
+ * only one instance per file, see {@link #of(File)}, and threads take turns on it.
+ */
+final class ProcessLock {
+    private final File file;
+    private final ReentrantLock local = new ReentrantLock();
+
+    private ProcessLock(File file) {
+        this.file = file;
+    }
+
+    public static ProcessLock of(File file) throws IOException {
+        File f = file.getCanonicalFile();
+        synchronized (LOCKS) {
+            ProcessLock l = LOCKS.get(f);
+            if (l==null)
+                LOCKS.put(f, l=new ProcessLock(f));
+            return l;
+        }
+    }
+
+    /**
+     * Runs the given task while holding the lock, waiting for other threads and processes to release it first.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        local.lock();
+        try {
+            if (local.getHoldCount()>1)
+                return task.call();     // we already hold the file lock, too
+
+            file.getParentFile().mkdirs();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileLock lock = raf.getChannel().lock();
+                try {
+                    return task.call();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        } finally {
+            local.unlock();
+        }
+    }
+
+    /**
+     * Marks the given file as used by this process until it exits, see {@link #isUsed(File)}.
+     */
+    public static void holdShared(File file) throws IOException {
+        File f = file.getCanonicalFile();
+        synchronized (HELD) {
+            if (HELD.containsKey(f))
+                return;
+            f.getParentFile().mkdirs();
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                HELD.put(f, raf.getChannel().lock(0, Long.MAX_VALUE, true));
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Is the given file held by {@link #holdShared(File)}, by this or another process?
+     */
+    public static boolean isUsed(File file) {
+        if (!file.exists())
+            return false;
+        try {
+            // on some systems, closing another channel to the file would release our lock
+            synchronized (HELD) {
+                if (HELD.containsKey(file.getCanonicalFile()))
+                    return true;
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel ch = raf.getChannel();
+                FileLock lock = ch.tryLock();
+                if (lock==null)
+                    return true;
+                lock.release();
+                return false;
+            } finally {
+                raf.close();
+            }
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            return true;    // better safe than sorry
+        }
+    }
+
+    private static final Map<File,ProcessLock> LOCKS = new HashMap<File,ProcessLock>();
+
+    /**
+     * Shared locks held until we exit. The channels must stay open for the locks to stay valid.
+     */
+    private static final Map<File,FileLock> HELD = new HashMap<File,FileLock>();
+}
@@ -0,0 +1,240 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything we call over the network goes through here, so that no single request can stall the run.
+ *
+ * <p>
+ * Each request to a host:
+ * <ul>
+ *     <li>is refused right away while the host's {@link CircuitBreaker} is open,
+ *     <li>waits for a slot from the host's {@link AdaptiveConcurrencyLimiter},
+ *     <li>fails once connecting or reading takes longer than {@link #CONNECT_TIMEOUT} or {@link #READ_TIMEOUT},
+ *     <li>is retried with jittered exponential backoff if it failed in a transient way.
+ * </ul>
+ *
+ * <p>
+ * Requests run on the calling thread, and rely on the timeouts of the client libraries, see
+ * {@link #openConnection(URL)}, {@link #configureTimeout(Object)} and {@link #configureHttpClient()}.
+ * Giving up on a request while it's still running wouldn't stop it from writing its files,
+ * so a retry must not start before the attempt that it replaces is over.
+ *
+ * <p>
+ * Timeouts and retries are configured through system properties prefixed with this class name,
+ * e.g. {@code -Dorg.jvnet.hudson.update_center.RemoteHost.readTimeout=30000}.
+ */
+public final class RemoteHost {
+    private final String host;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final long backoff;
+
+    private RemoteHost(String host) {
+        this(host, AdaptiveConcurrencyLimiter.forHost(host), new CircuitBreaker(host, BREAKER_THRESHOLD, BREAKER_COOLDOWN), BACKOFF);
+    }
+
+    /**
+     * @param backoff
+     *      The cap on the delay before the first retry, which doubles with every further attempt.
+     */
+    RemoteHost(String host, AdaptiveConcurrencyLimiter limiter, CircuitBreaker breaker, long backoff) {
+        this.host = host;
+        this.limiter = limiter;
+        this.breaker = breaker;
+        this.backoff = backoff;
+    }
+
+    public static RemoteHost forHost(String host) {
+        synchronized (HOSTS) {
+            RemoteHost h = HOSTS.get(host);
+            if (h==null)
+                HOSTS.put(host, h=new RemoteHost(host));
+            return h;
+        }
+    }
+
+    public static RemoteHost forURL(URL url) {
+        return forHost(url.getHost());
+    }
+
+    /**
+     * Prints the state of every host contacted so far.
+     */
+    public static void report(PrintStream out) {
+        synchronized (HOSTS) {
+            for (RemoteHost h : HOSTS.values()) {
+                out.println(h.limiter);
+                out.println(h.breaker);
+            }
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * True if requests to this host are currently refused, and callers should fall back to cached data if they can.
+     */
+    public boolean isUnavailable() {
+        return breaker.isOpen();
+    }
+
+    /**
+     * Performs a request to this host.
+     *
+     * @throws CircuitOpenException
+     *      if the circuit breaker refused the request.
+     * @throws IOException
+     *      if the request failed. Failures other than {@link IOException}s are wrapped.
+     */
+    public <T> T call(final Callable<T> request) throws IOException {
+        Exception failure = null;
+        for (int attempt=1; ; attempt++) {
+            if (!breaker.allowRequest())
+                throw new CircuitOpenException(host, failure);
+
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+            try {
+                T r = request.call();
+                permit.success();
+                breaker.onSuccess();
+                return r;
+            } catch (Exception e) {
+                permit.failed(e);
+                if (!isTransient(e)) {
+                    breaker.onSuccess();    // the host did answer, we just didn't like the answer
+                    throw asIOException(e);
+                }
+                breaker.onFailure();
+                failure = e;
+            } finally {
+                permit.release();
+            }
+
+            if (attempt>=MAX_ATTEMPTS)
+                throw asIOException(failure);
+
+            long delay = backoff(attempt);
+            System.out.println(String.format("=> [%s] attempt %d failed (%s), retrying in %dms", host, attempt, failure, delay));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw (InterruptedIOException)new InterruptedIOException().initCause(e);
+            }
+        }
+    }
+
+    /**
+     * Full jitter: a random delay between 0 and the exponentially growing cap.
+     */
+    private long backoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF, backoff << Math.min(attempt-1, 16));
+        synchronized (RANDOM) {
+            return (long)(RANDOM.nextDouble()*cap);
+        }
+    }
+
+    /**
+     * Is it worth retrying after this failure? i.e. timeouts, connection problems and overload responses,
+     * but not things like a missing artifact.
+     */
+    static boolean isTransient(Throwable t) {
+        if (AdaptiveConcurrencyLimiter.isOverload(t))
+            return true;
+        for (; t!=null; t=t.getCause()) {
+            if (t instanceof SocketException || t instanceof SocketTimeoutException)
+                return true;
+        }
+        return false;
+    }
+
+    private static IOException asIOException(Exception e) {
+        if (e instanceof IOException)   return (IOException)e;
+        return new IOException(e.getMessage(), e);
+    }
+
+    /**
+     * Opens a connection with our connect and read timeouts.
+     */
+    public static URLConnection openConnection(URL url) throws IOException {
+        URLConnection con = url.openConnection();
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+        return con;
+    }
+
+    /**
+     * Applies our read timeout to a SOAP client stub.
+     *
+     * Axis stubs have {@code setTimeout(int)}, but it isn't a part of the JAX-RPC API, so we look it up reflectively.
+     */
+    public static void configureTimeout(Object stub) {
+        try {
+            Method m = stub.getClass().getMethod("setTimeout", int.class);
+            m.invoke(stub, READ_TIMEOUT);
+        } catch (Exception e) {
+            System.out.println("** Unable to set the timeout of "+stub.getClass()+": "+e);
+        }
+    }
+
+    /**
+     * Applies our connect and read timeouts to every commons-httpclient client created from now on,
+     * which is what the HTTP Wagon uses to resolve artifacts.
+     *
+     * Wagon 1.0-beta-5 has no timeout setting of its own, and the wagons are created deep inside the
+     * {@code ArtifactResolver}, so we change the defaults that every client inherits. We don't depend on
+     * commons-httpclient ourselves, so we look it up reflectively.
+     */
+    public static void configureHttpClient() {
+        try {
+            Class<?> c = Class.forName("org.apache.commons.httpclient.params.DefaultHttpParams");
+            Object params = c.getMethod("getDefaultParams").invoke(null);
+            Method set = params.getClass().getMethod("setParameter", String.class, Object.class);
+            set.invoke(params, "http.connection.timeout", CONNECT_TIMEOUT);
+            set.invoke(params, "http.socket.timeout", READ_TIMEOUT);
+        } catch (Exception e) {
+            System.out.println("** Unable to set the timeouts of commons-httpclient: "+e);
+        }
+    }
+
+    /**
+     * Thrown when a request is refused because the circuit breaker of the host is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String host, Throwable lastFailure) {
+            super("Circuit breaker for "+host+" is open", lastFailure);
+        }
+    }
+
+    private static final Map<String,RemoteHost> HOSTS = new TreeMap<String,RemoteHost>();
+
+    private static final Random RANDOM = new Random();
+
+    private static final String PREFIX = RemoteHost.class.getName();
+
+    public static final int CONNECT_TIMEOUT = Integer.getInteger(PREFIX+".connectTimeout", (int)TimeUnit.SECONDS.toMillis(30));
+    public static final int READ_TIMEOUT = Integer.getInteger(PREFIX+".readTimeout", (int)TimeUnit.SECONDS.toMillis(60));
+    public static final int MAX_ATTEMPTS = Integer.getInteger(PREFIX+".maxAttempts", 3);
+    private static final long BACKOFF = Long.getLong(PREFIX+".backoff", TimeUnit.SECONDS.toMillis(1));
+    private static final long MAX_BACKOFF = Long.getLong(PREFIX+".maxBackoff", TimeUnit.SECONDS.toMillis(30));
+    private static final int BREAKER_THRESHOLD = Integer.getInteger(PREFIX+".breakerThreshold", 5);
+    private static final long BREAKER_COOLDOWN = Long.getLong(PREFIX+".breakerCooldown", TimeUnit.MINUTES.toMillis(1));
+}
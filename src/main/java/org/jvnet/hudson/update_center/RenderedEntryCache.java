@@ -0,0 +1,56 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Rendered JSON entries, kept across runs under a digest of everything they were rendered from.
+ *
+ * <p>
+ * A hit is reused as is, so the cost of a warm run is proportional to what changed since the last one.
+ * Entries are never invalidated; a change in the inputs simply leads to a different key.
+ */
+final class RenderedEntryCache {
+    private final DiskCache cache;
+
+    RenderedEntryCache(String name) {
+        this.cache = new DiskCache(name);
+    }
+
+    RenderedEntryCache(File dir) {
+        this.cache = new DiskCache(dir);
+    }
+
+    /**
+     * Turns the description of the inputs into a cache key.
+     */
+    static String keyOf(String inputs) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(inputs.getBytes("UTF-8"));
+            StringBuilder b = new StringBuilder(digest.length*2+1);
+            for (int i=0; i<digest.length; i++) {
+                if (i==1)   b.append('/');      // spread the entries over 256 directories
+                b.append(Character.forDigit((digest[i]>>4)&0xF, 16)).append(Character.forDigit(digest[i]&0xF, 16));
+            }
+            return b.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    String get(String key) {
+        return cache.get(key, String.class);
+    }
+
+    void put(String key, String rendered) {
+        try {
+            cache.put(key, rendered);
+        } catch (IOException e) {
+            System.out.println("** Failed to cache rendered entry: "+e);
+        }
+    }
+}
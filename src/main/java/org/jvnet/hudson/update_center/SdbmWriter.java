@@ -0,0 +1,188 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes an SDBM database, the hashed format that Apache reads with {@code RewriteMap name dbm=sdbm:path},
+ * without needing {@code httxt2dbm} on the machine that generates the site.
+ *
+ * <p>
+ * This follows the insertion and page splitting of the SDBM library in APR, so that lookups find
+ * every key on the page they hash to: {@code path.pag} holds 1KB pages of key/value pairs,
+ * and {@code path.dir} is the bitmap of the pages that have been split.
+ */
+final class SdbmWriter {
+    private final TreeMap<Long,byte[]> pages = new TreeMap<Long,byte[]>();
+    private final BitSet dir = new BitSet();
+
+    /**
+     * Adds a pair. Like {@code sdbm_store} with {@code SDBM_INSERT}, a key that's already there is left alone.
+     */
+    public void put(String key, String value) throws IOException {
+        byte[] k = key.getBytes(UTF8), v = value.getBytes(UTF8);
+        if (k.length + v.length > PAIRMAX)
+            throw new IOException("Too long for an SDBM page: "+key);
+
+        long hash = hash(k);
+
+        // find the page, as getpage() does
+        int hbit = 0;
+        long dbit = 0;
+        while (dir.get((int)dbit))
+            dbit = 2 * dbit + ((hash & (1L << hbit++)) != 0 ? 2 : 1);
+        long hmask = (1L << hbit) - 1;
+        long pageNo = hash & hmask;
+        byte[] page = page(pageNo);
+
+        if (find(page, k) >= 0)
+            return;
+
+        int need = k.length + v.length;
+        for (int splits = 0; !fits(page, need); splits++) {
+            if (splits >= MAX_SPLITS)
+                throw new IOException("Unable to make room for "+key);
+
+            // split the page on the next bit of the hash, as makroom() does
+            long sbit = hmask + 1;
+            byte[] stay = new byte[PBLKSIZ], move = new byte[PBLKSIZ];
+            for (int i = 1; i < count(page); i += 2) {
+                byte[] pk = item(page, i), pv = item(page, i + 1);
+                append((hash(pk) & sbit) != 0 ? move : stay, pk, pv);
+            }
+            long newNo = (hash & hmask) | sbit;
+            pages.put(pageNo, stay);
+            pages.put(newNo, move);
+            dir.set((int)dbit);
+
+            if ((hash & sbit) != 0) {
+                pageNo = newNo;
+                page = move;
+            } else {
+                page = stay;
+            }
+            dbit = 2 * dbit + ((hash & sbit) != 0 ? 2 : 1);
+            hmask |= sbit;
+        }
+        append(page, k, v);
+    }
+
+    /**
+     * Writes {@code base.pag} and {@code base.dir}.
+     */
+    public void write(File base) throws IOException {
+        RandomAccessFile pag = new RandomAccessFile(new File(base.getPath()+".pag"), "rw");
+        try {
+            pag.setLength(0);
+            // pages that were never written stay holes, which the library reads as empty pages
+            for (Map.Entry<Long,byte[]> e : pages.entrySet()) {
+                pag.seek(e.getKey() * PBLKSIZ);
+                pag.write(e.getValue());
+            }
+        } finally {
+            pag.close();
+        }
+
+        OutputStream d = new FileOutputStream(new File(base.getPath()+".dir"));
+        try {
+            if (!dir.isEmpty()) {
+                // the library reads and writes the bitmap in whole blocks, and derives its size from the file size
+                byte[] bits = new byte[(dir.length() / BYTESIZ / DBLKSIZ + 1) * DBLKSIZ];
+                for (int i = dir.nextSetBit(0); i >= 0; i = dir.nextSetBit(i + 1))
+                    bits[i / BYTESIZ] |= 1 << (i % BYTESIZ);
+                d.write(bits);
+            }
+        } finally {
+            d.close();
+        }
+    }
+
+    private byte[] page(long pageNo) {
+        byte[] p = pages.get(pageNo);
+        if (p == null)
+            pages.put(pageNo, p = new byte[PBLKSIZ]);
+        return p;
+    }
+
+    /**
+     * The hash function of SDBM. Bytes are signed, as {@code char} is on the platforms Apache runs on.
+     */
+    static long hash(byte[] key) {
+        long n = 0;
+        for (byte b : key)
+            n = b + 65599 * n;
+        return n;
+    }
+
+    /*
+     * A page starts with a table of shorts in native byte order, little endian for our servers:
+     * the number of items, then the offset of each key and value. The keys and values themselves
+     * are packed from the end of the page towards the table.
+     */
+
+    private static int count(byte[] page) {
+        return getShort(page, 0);
+    }
+
+    private static int offset(byte[] page, int i) {
+        return i == 0 ? PBLKSIZ : getShort(page, i);
+    }
+
+    private static byte[] item(byte[] page, int i) {
+        int start = offset(page, i), end = offset(page, i - 1);
+        byte[] b = new byte[end - start];
+        System.arraycopy(page, start, b, 0, b.length);
+        return b;
+    }
+
+    private static int find(byte[] page, byte[] key) {
+        for (int i = 1; i < count(page); i += 2)
+            if (Arrays.equals(item(page, i), key))
+                return i;
+        return -1;
+    }
+
+    private static boolean fits(byte[] page, int need) {
+        int n = count(page);
+        int free = offset(page, n) - (n + 1) * 2;
+        return need + 2 * 2 <= free;
+    }
+
+    private static void append(byte[] page, byte[] key, byte[] value) {
+        int n = count(page);
+        int off = offset(page, n);
+        off -= key.length;
+        System.arraycopy(key, 0, page, off, key.length);
+        putShort(page, n + 1, off);
+        off -= value.length;
+        System.arraycopy(value, 0, page, off, value.length);
+        putShort(page, n + 2, off);
+        putShort(page, 0, n + 2);
+    }
+
+    private static int getShort(byte[] page, int i) {
+        return (page[2 * i] & 0xFF) | (page[2 * i + 1] & 0xFF) << 8;
+    }
+
+    private static void putShort(byte[] page, int i, int v) {
+        page[2 * i] = (byte) v;
+        page[2 * i + 1] = (byte) (v >> 8);
+    }
+
+    private static final int PBLKSIZ = 1024;
+    private static final int DBLKSIZ = 4096;
+    private static final int PAIRMAX = 1008;
+    private static final int BYTESIZ = 8;
+    /** SPLTMAX in the library: how many times a page may be split to make room for one pair. */
+    private static final int MAX_SPLITS = 10;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+}
@@ -0,0 +1,128 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * One of the update centers we generate from the same repository, e.g. the one for users of a particular LTS baseline.
+ *
+ * <p>
+ * A segment is the combination of what {@link VersionCappedMavenRepository} and {@link AlphaBetaOnlyRepository}
+ * used to be stacked for, so that several of them can be evaluated together by {@link SegmentIndex}.
+ */
+public final class Segment {
+    public enum Experimental {
+        /**
+         * Alpha and beta releases are treated like any other.
+         */
+        INCLUDE,
+        /**
+         * Only releases that aren't alpha or beta.
+         */
+        EXCLUDE,
+        /**
+         * Only alpha and beta releases.
+         */
+        ONLY
+    }
+
+    /**
+     * Name of the directory the segment is generated into.
+     */
+    public final String name;
+
+    /**
+     * Only plugins compatible with this core version are offered. Null if uncapped.
+     */
+    public final VersionNumber capPlugin;
+    private final VersionKey capPluginKey;
+
+    /**
+     * Only core versions up to this one are offered. Null if uncapped.
+     */
+    public final VersionNumber capCore;
+
+    public final Experimental experimental;
+
+    public Segment(String name, VersionNumber capPlugin, VersionNumber capCore, Experimental experimental) {
+        this.name = name;
+        this.capPlugin = capPlugin;
+        this.capPluginKey = capPlugin==null ? null : VersionKey.of(capPlugin);
+        this.capCore = capCore;
+        this.experimental = experimental;
+    }
+
+    /**
+     * Parses the {@code NAME:CAP:CAPCORE:EXPERIMENTAL} notation used on the command line,
+     * where the caps may be left empty and EXPERIMENTAL is one of
+     * {@code include}, {@code exclude} (the default) or {@code only}.
+     * For example {@code stable-1.651:1.651.999:1.651.999} or {@code experimental::2.999:include}.
+     *
+     * @throws IllegalArgumentException
+     *      if the notation isn't followed, with a message that says what is accepted.
+     */
+    public static Segment parse(String spec) {
+        String[] tokens = spec.split(":", -1);
+        if (tokens.length<2 || tokens.length>4 || tokens[0].length()==0)
+            throw new IllegalArgumentException("Expected NAME:CAP:CAPCORE:EXPERIMENTAL but got "+spec);
+        VersionNumber cap = toVersion(tokens[1]);
+        VersionNumber capCore = tokens.length>2 ? toVersion(tokens[2]) : cap;
+        Experimental e = tokens.length>3 && tokens[3].length()>0 ? toExperimental(tokens[3], spec) : Experimental.EXCLUDE;
+        return new Segment(tokens[0], cap, capCore, e);
+    }
+
+    private static Experimental toExperimental(String s, String spec) {
+        try {
+            return Experimental.valueOf(s.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException x) {
+            StringBuilder accepted = new StringBuilder();
+            for (Experimental e : Experimental.values())
+                accepted.append(accepted.length()==0 ? "" : ", ").append(e.name().toLowerCase(Locale.ENGLISH));
+            throw new IllegalArgumentException("Expected EXPERIMENTAL to be one of "+accepted+" but got "+s+" in "+spec, x);
+        }
+    }
+
+    private static VersionNumber toVersion(String s) {
+        return s.length()==0 ? null : new VersionNumber(s);
+    }
+
+    /**
+     * Does this segment offer the given plugin release?
+     *
+     * @param requiredCore
+     *      {@link HPI#getRequiredJenkinsVersionKey()}, or null if it couldn't be determined.
+     * @param experimental
+     *      {@link AlphaBetaOnlyRepository#isExperimental(HPI)}
+     */
+    boolean accepts(VersionKey requiredCore, boolean experimental) {
+        if (capPluginKey!=null && (requiredCore==null || requiredCore.compareTo(capPluginKey)>0))
+            return false;
+        switch (this.experimental) {
+        case EXCLUDE:   return !experimental;
+        case ONLY:      return experimental;
+        default:        return true;
+        }
+    }
+
+    /**
+     * Does this segment offer the given plugin release?
+     */
+    public boolean accepts(HPI hpi) {
+        VersionKey requiredCore = null;
+        if (capPluginKey!=null) {
+            try {
+                requiredCore = hpi.getRequiredJenkinsVersionKey();
+            } catch (IOException x) {
+                x.printStackTrace();
+            }
+        }
+        return accepts(requiredCore, AlphaBetaOnlyRepository.isExperimental(hpi));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,120 @@
+package org.jvnet.hudson.update_center;
+
+import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.sonatype.nexus.index.context.UnsupportedExistingLuceneIndexException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which plugin releases belong to which {@link Segment}s.
+ *
+ * <p>
+ * Every release is evaluated against every segment once, in a single pass over the listing,
+ * and the outcome is kept as a bit set with one bit per segment. A segment's {@link PluginHistory}s
+ * are then picked out of the listing with a mask, which doesn't need the manifests anymore.
+ */
+public final class SegmentIndex {
+    private final List<Segment> segments;
+    private final Map<String,Memberships> plugins = new LinkedHashMap<String,Memberships>();
+
+    /**
+     * Releases of a plugin, newest first, alongside their membership bits.
+     */
+    private static final class Memberships {
+        final PluginHistory history;
+        final HPI[] versions;
+        final long[] bits;
+
+        Memberships(PluginHistory history) {
+            this.history = history;
+            this.versions = history.artifacts.values().toArray(new HPI[history.artifacts.size()]);
+            this.bits = new long[versions.length];
+        }
+    }
+
+    public SegmentIndex(MavenRepository repository, List<Segment> segments) throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        if (segments.size()>Long.SIZE)
+            throw new IllegalArgumentException("At most "+Long.SIZE+" segments are supported, but got "+segments.size());
+        this.segments = new ArrayList<Segment>(segments);
+
+        boolean needsRequiredCore = false;
+        for (Segment s : segments)
+            needsRequiredCore |= s.capPlugin!=null;
+
+        for (PluginHistory h : repository.listHudsonPlugins()) {
+            Memberships m = new Memberships(h);
+            for (int i=0; i<m.versions.length; i++) {
+                HPI hpi = m.versions[i];
+                VersionKey requiredCore = null;
+                if (needsRequiredCore) {
+                    try {
+                        requiredCore = hpi.getRequiredJenkinsVersionKey();
+                    } catch (IOException x) {
+                        x.printStackTrace();
+                    }
+                }
+                boolean experimental = AlphaBetaOnlyRepository.isExperimental(hpi);
+
+                long b = 0;
+                for (int j=0; j<this.segments.size(); j++) {
+                    if (this.segments.get(j).accepts(requiredCore, experimental))
+                        b |= 1L<<j;
+                }
+                m.bits[i] = b;
+            }
+            plugins.put(h.artifactId, m);
+        }
+    }
+
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    private long mask(Segment s) {
+        int i = segments.indexOf(s);
+        if (i<0)    throw new IllegalArgumentException("Unknown segment "+s);
+        return 1L<<i;
+    }
+
+    /**
+     * The releases of the plugin offered in the segment, or null if there's none.
+     */
+    public PluginHistory getHistory(String artifactId, Segment s) {
+        Memberships m = plugins.get(artifactId);
+        if (m==null)    return null;
+        long mask = mask(s);
+
+        PluginHistory r = null;
+        for (int i=0; i<m.versions.length; i++) {
+            if ((m.bits[i]&mask)==0)    continue;
+            if (r==null) {
+                r = new PluginHistory(m.history.artifactId);
+                r.groupId.addAll(m.history.groupId);
+            }
+            HPI hpi = m.versions[i];
+            r.artifacts.put(hpi.getVersion(), hpi);
+        }
+        return r;
+    }
+
+    /**
+     * Everything offered in the segment, in the order of the underlying listing.
+     */
+    public Collection<PluginHistory> listHudsonPlugins(Segment s) {
+        List<PluginHistory> r = new ArrayList<PluginHistory>();
+        for (String artifactId : plugins.keySet()) {
+            PluginHistory h = getHistory(artifactId, s);
+            if (h!=null)
+                r.add(h);
+        }
+        return r;
+    }
+}
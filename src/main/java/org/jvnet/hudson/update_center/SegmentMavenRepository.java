@@ -0,0 +1,48 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.sonatype.nexus.index.context.UnsupportedExistingLuceneIndexException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * Delegating {@link MavenRepository} that shows what one {@link Segment} of a {@link SegmentIndex} offers.
+ *
+ * <p>
+ * This is the equivalent of stacking {@link VersionCappedMavenRepository} and {@link AlphaBetaOnlyRepository},
+ * except that all the segments share the work of classifying the releases.
+ */
+public class SegmentMavenRepository extends MavenRepository {
+    private final SegmentIndex index;
+    public final Segment segment;
+
+    public SegmentMavenRepository(MavenRepository base, SegmentIndex index, Segment segment) {
+        setBaseRepository(base);
+        this.index = index;
+        this.segment = segment;
+    }
+
+    @Override
+    public TreeMap<VersionNumber, HudsonWar> getHudsonWar() throws IOException, AbstractArtifactResolutionException {
+        TreeMap<VersionNumber, HudsonWar> wars = base.getHudsonWar();
+        if (segment.capCore==null)
+            return wars;
+        return new TreeMap<VersionNumber, HudsonWar>(wars.tailMap(segment.capCore,true));
+    }
+
+    @Override
+    protected Collection<PluginHistory> scanHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        return index.listHudsonPlugins(segment);
+    }
+
+    @Override
+    public File resolve(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException {
+        return base.resolve(a, type, classifier);
+    }
+}
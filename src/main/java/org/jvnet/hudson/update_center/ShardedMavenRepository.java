@@ -0,0 +1,76 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
+import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.sonatype.nexus.index.context.UnsupportedExistingLuceneIndexException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * {@link MavenRepository} that only reports the plugins of one shard, so that several runs
+ * can each enrich a part of the catalog and write it with {@code -snapshot}, for one run
+ * to merge them with {@code -from-snapshot} and render.
+ *
+ * <p>
+ * Plugins are assigned by the hash of their lower-cased artifact ID, which is the same on every machine.
+ * Core releases aren't split; every shard reports them all.
+ */
+public class ShardedMavenRepository extends MavenRepository {
+    private final int shard, shards;
+
+    public ShardedMavenRepository(MavenRepository base, int shard, int shards) {
+        if (shards<1 || shard<0 || shard>=shards)
+            throw new IllegalArgumentException("Invalid shard "+shard+"/"+shards);
+        setBaseRepository(base);
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    /**
+     * Parses {@code i/N}, where shards are numbered from 0.
+     */
+    public static ShardedMavenRepository parse(MavenRepository base, String spec) {
+        int idx = spec.indexOf('/');
+        if (idx<0)
+            throw new IllegalArgumentException("Expected i/N but got "+spec);
+        try {
+            return new ShardedMavenRepository(base,
+                    Integer.parseInt(spec.substring(0, idx)), Integer.parseInt(spec.substring(idx+1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected i/N but got "+spec, e);
+        }
+    }
+
+    static int shardOf(String artifactId, int shards) {
+        int h = artifactId.toLowerCase(Locale.ENGLISH).hashCode();
+        return ((h%shards)+shards)%shards;
+    }
+
+    @Override
+    public TreeMap<VersionNumber, HudsonWar> getHudsonWar() throws IOException, AbstractArtifactResolutionException {
+        return base.getHudsonWar();
+    }
+
+    @Override
+    public File resolve(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException {
+        return base.resolve(a, type, classifier);
+    }
+
+    @Override
+    protected Collection<PluginHistory> scanHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        List<PluginHistory> result = new ArrayList<PluginHistory>();
+        for (PluginHistory p : base.listHudsonPlugins())
+            if (shardOf(p.artifactId, shards)==shard)
+                result.add(p);
+        System.out.println("Shard "+shard+"/"+shards+" has "+result.size()+" plugins");
+        return result;
+    }
+}
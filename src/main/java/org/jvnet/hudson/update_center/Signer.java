@@ -22,6 +22,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.security.DigestOutputStream;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
@@ -97,6 +98,14 @@ public class Signer {
      *      The same value passed as the argument so that the method can be used like a filter.
      */
     public JSONObject sign(JSONObject o) throws GeneralSecurityException, IOException, CmdLineException {
+        return sign(o, null);
+    }
+
+    /**
+     * Same as {@link #sign(JSONObject)}, for an object that contains placeholders of the given entries.
+     * The signature covers the canonical form with the entries spliced in.
+     */
+    public JSONObject sign(JSONObject o, SplicedEntries entries) throws GeneralSecurityException, IOException, CmdLineException {
         if (!isConfigured())    return o;
 
         JSONObject sign = new JSONObject();
@@ -109,7 +118,7 @@ public class Signer {
         // first, backward compatible signature for <1.433 Jenkins that forgets to flush the stream.
         // we generate this in the original names that those Jenkins understands.
         SignatureGenerator sg = new SignatureGenerator(signer, key);
-        o.writeCanonical(new OutputStreamWriter(sg.getOut(),"UTF-8"));
+        writeCanonical(o, entries, new OutputStreamWriter(sg.getOut(),"UTF-8"));
         sg.addRecord(sign,"");
 
         // then the correct signature, into names that don't collide.
@@ -119,7 +128,7 @@ public class Signer {
         }
         sg = new SignatureGenerator(signer, key);        
         try(OutputStreamWriter osw = new OutputStreamWriter(new TeeOutputStream(sg.getOut(),raw),"UTF-8")) {            
-            o.writeCanonical(osw);
+            writeCanonical(o, entries, osw);
         }
         sg.addRecord(sign,"correct_");
 
@@ -134,6 +143,13 @@ public class Signer {
         return o;
     }
 
+    private static void writeCanonical(JSONObject o, SplicedEntries entries, Writer w) throws IOException {
+        if (entries==null)
+            o.writeCanonical(w);
+        else
+            entries.writeCanonical(o, w);
+    }
+
     /**
      * Generates a digest and signature. Can be only used once, and then it needs to be thrown away.
      */
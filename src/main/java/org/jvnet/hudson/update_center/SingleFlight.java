@@ -0,0 +1,77 @@
+package org.jvnet.hudson.update_center;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Makes sure that something is computed only once at a time for the same key: whoever asks while
+ * it's being computed waits for that computation and gets its result, or its failure.
+ *
+ * <p>
+ * Successful results are also remembered, up to a number of them, most recently used first.
+ * Failures aren't, so the next caller after a failure tries again.
+ */
+final class SingleFlight<K,V> {
+    private final Map<K,FutureTask<V>> inFlight = new HashMap<K,FutureTask<V>>();
+    private final Map<K,V> done;
+
+    SingleFlight(final int capacity) {
+        done = new LinkedHashMap<K,V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+                return size()>capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the result for the key, computing it with the given callable unless it's known or being computed.
+     *
+     * @throws Exception
+     *      whatever the computation threw.
+     */
+    public V get(K key, Callable<V> c) throws Exception {
+        FutureTask<V> f;
+        boolean mine = false;
+        synchronized (this) {
+            V v = done.get(key);
+            if (v!=null)
+                return v;
+            f = inFlight.get(key);
+            if (f==null) {
+                inFlight.put(key, f=new FutureTask<V>(c));
+                mine = true;
+            }
+        }
+
+        if (mine) {
+            // computed on this thread, so that it keeps the caller's context and its interruption
+            f.run();
+            synchronized (this) {
+                inFlight.remove(key);
+                if (!f.isCancelled()) {
+                    try {
+                        V v = f.get();
+                        if (v!=null)
+                            done.put(key, v);
+                    } catch (ExecutionException e) {
+                        // rethrown below
+                    }
+                }
+            }
+        }
+
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof Exception)     throw (Exception)t;
+            if (t instanceof Error)         throw (Error)t;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.jvnet.hudson.update_center;
+
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Plugin entries serialized once and shared by all the update centers generated in a run.
+ *
+ * <p>
+ * A plugin that is rendered from the same inputs in several segments, as told by {@link Plugin#getRenderingKey()},
+ * has the same entry in all of them.
+ * Instead of the entry itself, the update center JSON gets a placeholder string, and when the JSON is written
+ * or signed, the placeholders are replaced by the compact or canonical serialization of the entry, which is
+ * computed only the first time it's needed. The result is byte for byte what serializing the entries in place produces.
+ */
+public final class SplicedEntries {
+    /**
+     * Makes the placeholders of this run impossible to confuse with anything else.
+     */
+    private final String tag = "@@"+UUID.randomUUID()+":";
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Map<String,Entry> byKey = new HashMap<String,Entry>();
+
+    public final class Entry {
+        private final String placeholder;
+        private JSONObject json;
+        private String compact, canonical;
+
+        private Entry(int index, JSONObject json) {
+            this.placeholder = tag+index+"@@";
+            this.json = json;
+        }
+
+        /**
+         * What to put in the JSON object in place of the entry.
+         */
+        public String getPlaceholder() {
+            return placeholder;
+        }
+
+        public synchronized String getCompact() {
+            if (compact==null)
+                compact = json.toString();
+            release();
+            return compact;
+        }
+
+        public synchronized String getCanonical() throws IOException {
+            if (canonical==null) {
+                StringWriter w = new StringWriter();
+                json.writeCanonical(w);
+                canonical = w.toString();
+            }
+            release();
+            return canonical;
+        }
+
+        /**
+         * Once both forms are computed, the object itself is no longer needed.
+         */
+        private void release() {
+            if (compact!=null && canonical!=null)
+                json = null;
+        }
+
+        @Override
+        public String toString() {
+            return getCompact();
+        }
+    }
+
+    /**
+     * Returns the entry of the plugin for what it's rendered from, rendering it if necessary.
+     * Plugins whose inputs aren't known for sure, or that couldn't be rendered completely, get an entry of their own.
+     */
+    public synchronized Entry get(Plugin plugin) throws IOException {
+        String key = plugin.getRenderingKey();
+        Entry e = key!=null ? byKey.get(key) : null;
+        if (e==null) {
+            e = add(plugin.toJSON());
+            if (key!=null && !plugin.isIncomplete())
+                byKey.put(key, e);
+        }
+        return e;
+    }
+
+    /**
+     * Adds an entry of its own for the given JSON object.
+     */
+    synchronized Entry add(JSONObject json) {
+        Entry e = new Entry(entries.size(), json);
+        entries.add(e);
+        return e;
+    }
+
+    /**
+     * Equivalent of {@link JSONObject#toString()}.
+     */
+    public String toString(JSONObject o) throws IOException {
+        StringWriter w = new StringWriter();
+        splice(o.toString(), w, false);
+        return w.toString();
+    }
+
+    /**
+     * Equivalent of {@link JSONObject#writeCanonical(Writer)}.
+     */
+    public void writeCanonical(JSONObject o, Writer w) throws IOException {
+        StringWriter s = new StringWriter();
+        o.writeCanonical(s);
+        splice(s.toString(), w, true);
+    }
+
+    /**
+     * Copies the serialized JSON, replacing the quoted placeholders by the entries.
+     */
+    private void splice(String s, Writer w, boolean canonical) throws IOException {
+        String prefix = '"'+tag;
+        int from = 0;
+        int i;
+        while ((i=s.indexOf(prefix, from))>=0) {
+            int start = i+prefix.length();
+            int end = s.indexOf(SUFFIX, start);
+            Entry e;
+            synchronized (this) {
+                e = entries.get(Integer.parseInt(s.substring(start, end)));
+            }
+            w.write(s, from, i-from);
+            w.write(canonical ? e.getCanonical() : e.getCompact());
+            from = end+SUFFIX.length();
+        }
+        w.write(s, from, s.length()-from);
+    }
+
+    private static final String SUFFIX = "@@\"";
+}
@@ -4,7 +4,6 @@ import hudson.util.VersionNumber;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
 import org.codehaus.plexus.PlexusContainerException;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
-import org.sonatype.nexus.index.ArtifactInfo;
 import org.sonatype.nexus.index.context.UnsupportedExistingLuceneIndexException;
 
 import java.io.File;
@@ -35,12 +34,12 @@ public class TruncatedMavenRepository extends MavenRepository {
     }
 
     @Override
-    public File resolve(ArtifactInfo a, String type, String classifier) throws AbstractArtifactResolutionException {
+    public File resolve(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException {
         return base.resolve(a, type, classifier);
     }
 
     @Override
-    public Collection<PluginHistory> listHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+    protected Collection<PluginHistory> scanHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
         List<PluginHistory> result = new ArrayList<PluginHistory>(base.listHudsonPlugins());
         return result.subList(0, Math.min(cap,result.size()));
     }
@@ -4,15 +4,15 @@ import hudson.util.VersionNumber;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
 import org.codehaus.plexus.PlexusContainerException;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
-import org.sonatype.nexus.index.ArtifactInfo;
 import org.sonatype.nexus.index.context.UnsupportedExistingLuceneIndexException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 
 /**
  * Delegating {@link MavenRepository} to limit the data to the subset compatible with the specific version.
@@ -25,6 +25,7 @@ public class VersionCappedMavenRepository extends MavenRepository {
      * Version number to cap. We only report plugins that are compatible with this core version.
      */
     private final VersionNumber capPlugin;
+    private final VersionKey capPluginKey;
 
     /**
      * Version number to cap core. We only report core versions as high as this.
@@ -34,6 +35,7 @@ public class VersionCappedMavenRepository extends MavenRepository {
     public VersionCappedMavenRepository(MavenRepository base, VersionNumber capPlugin, VersionNumber capCore) {
         setBaseRepository(base);
         this.capPlugin = capPlugin;
+        this.capPluginKey = VersionKey.of(capPlugin);
         this.capCore = capCore;
     }
 
@@ -47,25 +49,21 @@ public class VersionCappedMavenRepository extends MavenRepository {
     }
 
     @Override
-    public Collection<PluginHistory> listHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
-        Collection<PluginHistory> r = base.listHudsonPlugins();
-        for (Iterator<PluginHistory> jtr = r.iterator(); jtr.hasNext();) {
-            PluginHistory h = jtr.next();
-
-            for (Iterator<Entry<VersionNumber, HPI>> itr = h.artifacts.entrySet().iterator(); itr.hasNext();) {
-                Entry<VersionNumber, HPI> e =  itr.next();
-                try {
-                    VersionNumber v = new VersionNumber(e.getValue().getRequiredJenkinsVersion());
-                    if (v.compareTo(capPlugin)<=0)
-                        continue;
-                } catch (IOException x) {
-                    x.printStackTrace();
+    protected Collection<PluginHistory> scanHudsonPlugins() throws PlexusContainerException, ComponentLookupException, IOException, UnsupportedExistingLuceneIndexException, AbstractArtifactResolutionException {
+        List<PluginHistory> r = new ArrayList<PluginHistory>();
+        for (PluginHistory h : base.listHudsonPlugins()) {
+            h = h.filter(new Predicate<HPI>() {
+                public boolean test(HPI hpi) {
+                    try {
+                        return hpi.getRequiredJenkinsVersionKey().compareTo(capPluginKey)<=0;
+                    } catch (IOException x) {
+                        x.printStackTrace();
+                        return false;
+                    }
                 }
-                itr.remove();
-            }
-
-            if (h.artifacts.isEmpty())
-                jtr.remove();
+            });
+            if (h!=null)
+                r.add(h);
         }
 
         return r;
@@ -73,7 +71,7 @@ public class VersionCappedMavenRepository extends MavenRepository {
 
 
     @Override
-    public File resolve(ArtifactInfo a, String type, String classifier) throws AbstractArtifactResolutionException {
+    public File resolve(ArtifactCoordinates a, String type, String classifier) throws AbstractArtifactResolutionException {
         return base.resolve(a, type, classifier);
     }
 }
@@ -0,0 +1,95 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+
+import java.util.Comparator;
+
+/**
+ * A version number parsed once, for sorting and comparing against caps in tight loops.
+ *
+ * <p>
+ * Most versions are plain numbers like "1.480.3". Those with up to four components,
+ * each below 65536, are packed into a single {@code long} so that comparing two of them is
+ * one primitive comparison. Anything else falls back to {@link VersionNumber}, which
+ * also defines the order: packed keys sort exactly like their {@link VersionNumber}s.
+ */
+public final class VersionKey implements Comparable<VersionKey> {
+    private final String version;
+    /**
+     * Four 16-bit components, most significant first, or {@link #UNPACKED}.
+     */
+    private final long packed;
+    private VersionNumber number;
+
+    private VersionKey(String version) {
+        this.version = version;
+        this.packed = pack(version);
+    }
+
+    public static VersionKey of(String version) {
+        return new VersionKey(version);
+    }
+
+    public static VersionKey of(VersionNumber version) {
+        VersionKey k = new VersionKey(version.toString());
+        k.number = version;
+        return k;
+    }
+
+    /**
+     * Parses "1.2.3"-style versions, returning {@link #UNPACKED} for anything else.
+     */
+    static long pack(String v) {
+        long r = 0;
+        int components = 0;
+        int n = -1;     // value of the current component, -1 until we see a digit
+        for (int i=0; i<v.length(); i++) {
+            char ch = v.charAt(i);
+            if (ch>='0' && ch<='9') {
+                n = (n<0 ? 0 : n*10) + (ch-'0');
+                if (n>MAX_COMPONENT)    return UNPACKED;
+            } else if (ch=='.') {
+                if (n<0 || ++components==4)  return UNPACKED;
+                r = (r<<16) | n;
+                n = -1;
+            } else {
+                return UNPACKED;
+            }
+        }
+        if (n<0)    return UNPACKED;
+        r = (r<<16) | n;
+        // missing components are zeros, just like VersionNumber treats "1.2" and "1.2.0" as equal
+        return r << (16*(3-components));
+    }
+
+    public boolean isPacked() {
+        return packed!=UNPACKED;
+    }
+
+    public VersionNumber toVersionNumber() {
+        VersionNumber n = number;
+        if (n==null)
+            number = n = new VersionNumber(version);
+        return n;
+    }
+
+    public int compareTo(VersionKey that) {
+        if (this.packed!=UNPACKED && that.packed!=UNPACKED)
+            return Long.compareUnsigned(this.packed, that.packed);
+        return this.toVersionNumber().compareTo(that.toVersionNumber());
+    }
+
+    @Override
+    public String toString() {
+        return version;
+    }
+
+    private static final long UNPACKED = -1L;   // would be 65535.65535.65535.65535, which we refuse to pack
+    private static final int MAX_COMPONENT = 0xFFFE;
+
+    public static final Comparator<VersionKey> DESCENDING = new Comparator<VersionKey>() {
+        public int compare(VersionKey o1, VersionKey o2) {
+            return o2.compareTo(o1);
+        }
+    };
+}
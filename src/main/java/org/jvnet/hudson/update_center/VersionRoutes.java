@@ -0,0 +1,138 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Which segment Jenkins should be sent to, given the version it reports in {@code ?version=}.
+ *
+ * <p>
+ * The table is computed from the segments we generate, and written as a {@code RewriteMap}
+ * so that Apache routes with one hash lookup:
+ * <ul>
+ *     <li>{@code X.Y} is the first segment, by plugin cap, that is compatible with the weekly release X.Y.
+ *     <li>{@code X.Y.x} is the {@code stable-X.Y} segment for the LTS line X.Y, or else
+ *         where the weekly release X.Y goes.
+ * </ul>
+ * Every release line up to the newest one is listed. Anything not in the table, like newer weeklies, goes to
+ * {@code current} through the rules that follow in .htaccess.
+ */
+final class VersionRoutes {
+    /**
+     * In the order of the release lines.
+     */
+    private final Map<String,String> routes = new LinkedHashMap<String,String>();
+
+    VersionRoutes(List<Segment> segments, Collection<String> coreVersions) {
+        List<Segment> mainline = new ArrayList<Segment>();
+        Map<String,Segment> stable = new HashMap<String,Segment>();
+        for (Segment s : segments) {
+            if (s.experimental==Segment.Experimental.ONLY || s.capPlugin==null)
+                continue;
+            if (s.name.startsWith(STABLE_PREFIX))
+                stable.put(s.name.substring(STABLE_PREFIX.length()), s);
+            else
+                mainline.add(s);
+        }
+        Collections.sort(mainline, new Comparator<Segment>() {
+            public int compare(Segment a, Segment b) {
+                return VersionKey.of(a.capPlugin).compareTo(VersionKey.of(b.capPlugin));
+            }
+        });
+
+        // the newest release line of each major version
+        Map<Integer,Integer> newest = new TreeMap<Integer,Integer>();
+        for (String v : coreVersions) {
+            Matcher m = LINE.matcher(v);
+            if (!m.lookingAt())     continue;
+            int major = Integer.parseInt(m.group(1)), minor = Integer.parseInt(m.group(2));
+            Integer n = newest.get(major);
+            if (n==null || n<minor)
+                newest.put(major, minor);
+        }
+
+        for (Map.Entry<Integer,Integer> e : newest.entrySet()) {
+            for (int minor=0; minor<=e.getValue(); minor++) {
+                String line = e.getKey()+"."+minor;
+                String weekly = null;
+                VersionKey k = VersionKey.of(line);
+                for (Segment s : mainline) {
+                    if (k.compareTo(VersionKey.of(s.capPlugin))<=0) {
+                        weekly = s.name;
+                        break;
+                    }
+                }
+                Segment lts = stable.get(line);
+                if (weekly!=null)
+                    routes.put(line, weekly);
+                if (lts!=null)
+                    routes.put(line+".x", lts.name);
+                else if (weekly!=null)
+                    routes.put(line+".x", weekly);
+            }
+        }
+    }
+
+    public Map<String,String> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * Writes NAME.txt and NAME.{pag,dir} for {@code RewriteMap}, and the rules that use them to NAME.htaccess.
+     */
+    public void write(File dir, String name) throws IOException {
+        SdbmWriter dbm = new SdbmWriter();
+        PrintWriter txt = open(new File(dir, name+".txt"));
+        try {
+            txt.println("# GENERATED. DO NOT MODIFY.");
+            for (Map.Entry<String,String> e : routes.entrySet()) {
+                txt.println(e.getKey()+" "+e.getValue());
+                dbm.put(e.getKey(), e.getValue());
+            }
+        } finally {
+            txt.close();
+        }
+        dbm.write(new File(dir, name));
+
+        PrintWriter htaccess = open(new File(dir, name+".htaccess"));
+        try {
+            htaccess.printf("# Version-specific routing generated by update-center2.\n");
+            htaccess.printf("# Needs 'RewriteMap %s dbm=sdbm:.../%s' in the server configuration.\n", name, name);
+            htaccess.printf("\n# LTS releases like 1.554.1 are looked up as 1.554.x\n");
+            htaccess.printf("RewriteCond %%{QUERY_STRING} (?:^|&)version=(\\d+\\.\\d+)\\.\\d+ [NC]\n");
+            htaccess.printf("RewriteCond ${%s:%%1.x} ^(.+)$\n", name);
+            htaccess.printf("RewriteRule ^(update\\-center\\.json(?:\\.html)?)$ /%%1/$1? [NC,L,R=301]\n");
+            htaccess.printf("\n# weekly releases like 1.555, or 1.555-SNAPSHOT, are looked up as 1.555\n");
+            htaccess.printf("RewriteCond %%{QUERY_STRING} (?:^|&)version=(\\d+\\.\\d+) [NC]\n");
+            htaccess.printf("RewriteCond ${%s:%%1} ^(.+)$\n", name);
+            htaccess.printf("RewriteRule ^(update\\-center\\.json(?:\\.html)?)$ /%%1/$1? [NC,L,R=301]\n");
+        } finally {
+            htaccess.close();
+        }
+    }
+
+    private static PrintWriter open(File f) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(f),"UTF-8"));
+    }
+
+    /**
+     * Segments named like this serve the LTS line that follows.
+     */
+    static final String STABLE_PREFIX = "stable-";
+
+    private static final Pattern LINE = Pattern.compile("(\\d+)\\.(\\d+)");
+}
@@ -0,0 +1,184 @@
+package org.jvnet.hudson.update_center;
+
+import org.apache.commons.lang.Entities;
+
+/**
+ * Turns the {@code {excerpt}} macro of a wiki page into the HTML we put in the update center.
+ *
+ * <p>
+ * This does in a single pass over the page what used to take a backtracking regex to find the macro,
+ * then HTML escaping, then two more regexes to join lines and to turn {@code [text|url]} into links.
+ * Some wiki pages are huge, so this takes care to never scan the same part of the page twice,
+ * even when it's full of brackets that don't make links.
+ */
+final class WikiExcerpt {
+    private final String content;
+    private final StringBuilder out = new StringBuilder();
+
+    /** Next '|' or ']' for the link text, and for the link URL. */
+    private final Cursor textEnd, urlEnd;
+    /** Next ']' for the ignored remainder of a link. */
+    private final Cursor linkEnd;
+
+    private WikiExcerpt(String content) {
+        this.content = content;
+        this.textEnd = new Cursor('|', ']');
+        this.urlEnd = new Cursor('|', ']');
+        this.linkEnd = new Cursor(']', ']');
+    }
+
+    /**
+     * Obtains the excerpt of the given wiki page content in HTML.
+     *
+     * @return null if there's no excerpt, or if it's just another macro (e.g. {@code {info}...}),
+     *      which we can't render.
+     */
+    public static String toHtml(String content) {
+        int start = findStart(content);
+        if (start < 0)
+            return null;
+        // the excerpt extends to the last closing tag, even if there are other excerpts in between
+        int end = content.lastIndexOf(CLOSE);
+        if (end <= start)
+            return null;
+
+        int i = start;
+        while (i < end - 1 && isWhitespace(content.charAt(i)))
+            i++;
+        if (content.charAt(i) == '{')
+            return null;
+
+        WikiExcerpt e = new WikiExcerpt(content);
+        e.render(i, end);
+        return e.out.toString();
+    }
+
+    /**
+     * @return the index right after the first {@code {excerpt}}, {@code {excerpt:hidden}} or
+     *      {@code {excerpt:hidden=true}}, or -1.
+     */
+    private static int findStart(String content) {
+        for (int i = content.indexOf(OPEN); i >= 0; i = content.indexOf(OPEN, i + 1)) {
+            int j = i + OPEN.length();
+            if (content.startsWith(":hidden", j)) {
+                j += ":hidden".length();
+                if (content.startsWith("=true", j))
+                    j += "=true".length();
+            }
+            if (j < content.length() && content.charAt(j) == '}')
+                return j + 1;
+        }
+        return -1;
+    }
+
+    private void render(int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = content.charAt(i);
+            if (c == '[') {
+                int linkEnd = renderLink(i, end);
+                if (linkEnd > 0) {
+                    i = linkEnd;
+                    continue;
+                }
+            }
+            i = escape(i, end);
+        }
+    }
+
+    /**
+     * Renders {@code [text|url]} or {@code [text|url|tip]} at the given index.
+     *
+     * @return the index after the link, or -1 if there's no link there.
+     */
+    private int renderLink(int i, int end) {
+        int bar = textEnd.next(i + 1, end);
+        if (bar == i + 1 || bar >= end || content.charAt(bar) != '|')
+            return -1;
+        int close = urlEnd.next(bar + 1, end);
+        if (close == bar + 1 || close >= end)
+            return -1;
+        int after = close + 1;
+        if (content.charAt(close) == '|') {
+            after = linkEnd.next(close + 1, end) + 1;
+            if (after > end)
+                return -1;
+        }
+
+        out.append("<a href='");
+        escapeAll(bar + 1, close);
+        out.append("'>");
+        escapeAll(i + 1, bar);
+        out.append("</a>");
+        return after;
+    }
+
+    private void escapeAll(int i, int end) {
+        while (i < end)
+            i = escape(i, end);
+    }
+
+    /**
+     * Appends the character at the given index, HTML escaped, with line breaks turned into spaces.
+     *
+     * @return the index of the next character.
+     */
+    private int escape(int i, int end) {
+        char c = content.charAt(i);
+        if (c == '\n' || (c == '\r' && i + 1 < end && content.charAt(i + 1) == '\n')) {
+            out.append(' ');
+            return c == '\r' ? i + 2 : i + 1;
+        }
+        String entity = Entities.HTML40.entityName(c);
+        if (entity != null)
+            out.append('&').append(entity).append(';');
+        else if (c > 0x7F)
+            out.append("&#").append((int) c).append(';');
+        else
+            out.append(c);
+        return i + 1;
+    }
+
+    /**
+     * Same as {@code \s} in regular expressions.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Finds the next occurrence of either of two characters, remembering the answer for later calls.
+     * Calls must not go backward past the last answer, which holds for the way links are scanned.
+     * That's what keeps a page full of unbalanced brackets from being scanned over and over again.
+     */
+    private final class Cursor {
+        private final char a, b;
+        private int from = -1, found = -1;
+
+        Cursor(char a, char b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        /**
+         * @return the index of the next occurrence at or after {@code i}, or {@code end}.
+         */
+        int next(int i, int end) {
+            if (i >= from && i <= found)
+                return found;
+            int j = i;
+            while (j < end) {
+                char c = content.charAt(j);
+                if (c == a || c == b)
+                    break;
+                j++;
+            }
+            from = i;
+            found = j;
+            return j;
+        }
+    }
+
+    private static final String OPEN = "{excerpt";
+    private static final String CLOSE = "{excerpt}";
+}
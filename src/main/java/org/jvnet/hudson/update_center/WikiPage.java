@@ -12,10 +12,19 @@ import java.util.ArrayList;
 public class WikiPage implements Serializable {
     public final RemotePage page;
     public final RemoteLabel[] labels;
+    /**
+     * When the labels were fetched, as they're refreshed less often than the page. 0 in pages cached before this was recorded.
+     */
+    public final long labelsTimestamp;
 
     public WikiPage(RemotePage page, RemoteLabel[] labels) {
+        this(page, labels, System.currentTimeMillis());
+    }
+
+    WikiPage(RemotePage page, RemoteLabel[] labels, long labelsTimestamp) {
         this.labels = labels;
         this.page = page;
+        this.labelsTimestamp = labelsTimestamp;
     }
 
     public String[] getLabels() {
@@ -40,4 +49,7 @@ public class WikiPage implements Serializable {
     public String getContent() {
         return page.getContent();
     }
+
+    // as computed before labelsTimestamp was added, so that cached pages can still be read
+    private static final long serialVersionUID = 8742469343228037142L;
 }
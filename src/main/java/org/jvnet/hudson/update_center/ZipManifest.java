@@ -0,0 +1,195 @@
+package org.jvnet.hudson.update_center;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the manifest of a jar without {@link java.util.jar.JarFile}, which builds an entry for every
+ * class in the archive just so that we can look up one.
+ *
+ * <p>
+ * The file is mapped, and we go from the end of central directory record to the manifest's entry in
+ * the central directory, and inflate only that. The timestamp is what {@link java.util.zip.ZipEntry#getTime()}
+ * would report: the modification time from the extra field if there's one, else the DOS time in the local time zone.
+ */
+final class ZipManifest {
+    public final Manifest manifest;
+    public final long time;
+
+    ZipManifest(Manifest manifest, long time) {
+        this.manifest = manifest;
+        this.time = time;
+    }
+
+    /**
+     * @return
+     *      null if the archive uses something we leave to {@link java.util.jar.JarFile}, like Zip64.
+     * @throws IOException
+     *      if the file isn't a zip, or has no manifest.
+     */
+    public static ZipManifest read(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            b.order(ByteOrder.LITTLE_ENDIAN);
+            return read(b);
+        } finally {
+            raf.close();
+        }
+    }
+
+    static ZipManifest read(ByteBuffer b) throws IOException {
+        int end = findEnd(b);
+        if (end<0)
+            throw new IOException("Not a zip file");
+        long cenSize = uint(b, end+12), cenOffset = uint(b, end+16);
+        if (b.getShort(end+10)==-1 || cenSize==ZIP64 || cenOffset==ZIP64)
+            return null;
+        if (cenOffset+cenSize>end)
+            throw new IOException("Broken central directory");
+
+        for (int p=(int)cenOffset; p+CENHDR<=cenOffset+cenSize; ) {
+            if (b.getInt(p)!=CENSIG)
+                throw new IOException("Broken central directory");
+            int nameLength = ushort(b, p+28), extraLength = ushort(b, p+30), commentLength = ushort(b, p+32);
+            if (isManifest(b, p+CENHDR, nameLength))
+                return readEntry(b, p, p+CENHDR+nameLength, extraLength);
+            p += CENHDR+nameLength+extraLength+commentLength;
+        }
+        throw new IOException("No "+MANIFEST);
+    }
+
+    /**
+     * Finds the end of central directory record, which is followed by a comment of up to 64KB.
+     */
+    private static int findEnd(ByteBuffer b) {
+        int last = b.limit()-ENDHDR;
+        for (int p=last; p>=0 && p>=last-0xFFFF; p--)
+            if (b.getInt(p)==ENDSIG && p+ENDHDR+ushort(b, p+20)==b.limit())
+                return p;
+        return -1;
+    }
+
+    private static boolean isManifest(ByteBuffer b, int p, int length) {
+        if (length!=MANIFEST_BYTES.length)
+            return false;
+        for (int i=0; i<length; i++)
+            if (b.get(p+i)!=MANIFEST_BYTES[i])
+                return false;
+        return true;
+    }
+
+    private static ZipManifest readEntry(ByteBuffer b, int cen, int extra, int extraLength) throws IOException {
+        int method = ushort(b, cen+10);
+        long compressedSize = uint(b, cen+20), size = uint(b, cen+24), loc = uint(b, cen+42);
+        if ((method!=STORED && method!=DEFLATED) || compressedSize==ZIP64 || size==ZIP64 || loc==ZIP64)
+            return null;
+
+        if (loc+LOCHDR>b.limit() || b.getInt((int)loc)!=LOCSIG)
+            throw new IOException("Broken local header of "+MANIFEST);
+        long data = loc+LOCHDR+ushort(b, (int)loc+26)+ushort(b, (int)loc+28);
+        if (data+compressedSize>b.limit())
+            throw new IOException("Truncated "+MANIFEST);
+
+        // with nowrap, the inflater may want a dummy byte past the data, like ZipFile gives it
+        byte[] in = new byte[(int)compressedSize + (method==DEFLATED ? 1 : 0)];
+        ByteBuffer d = b.duplicate();
+        d.position((int)data);
+        d.get(in, 0, (int)compressedSize);
+
+        byte[] out;
+        if (method==STORED) {
+            out = in;
+        } else {
+            out = new byte[(int)size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(in);
+                int n = 0;
+                while (n<out.length) {
+                    int r = inflater.inflate(out, n, out.length-n);
+                    if (r==0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    n += r;
+                }
+                if (n!=out.length)
+                    throw new IOException("Truncated "+MANIFEST);
+            } catch (DataFormatException e) {
+                throw (IOException)new IOException("Broken "+MANIFEST).initCause(e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        long time = extendedTime(b, extra, extraLength);
+        if (time==-1)
+            time = dosToJavaTime(uint(b, cen+12));
+        return new ZipManifest(new Manifest(new ByteArrayInputStream(out)), time);
+    }
+
+    /**
+     * The modification time in the NTFS or extended timestamp extra field, the way {@link java.util.zip.ZipEntry} reads them.
+     *
+     * @return -1 if there's none.
+     */
+    private static long extendedTime(ByteBuffer b, int p, int length) {
+        long time = -1;
+        for (int end=p+length; p+4<=end; ) {
+            int tag = ushort(b, p), size = ushort(b, p+2);
+            p += 4;
+            if (p+size>end)
+                break;
+            if (tag==EXTID_NTFS && size>=32) {
+                // reserved, then the attributes; tag 1 has the mtime, atime and ctime
+                if (ushort(b, p+4)==0x0001 && ushort(b, p+6)==24)
+                    time = b.getLong(p+8)/10000 + WINDOWS_EPOCH;
+            } else if (tag==EXTID_EXTT && size>=5) {
+                if ((b.get(p)&0x1)!=0)
+                    time = uint(b, p+1)*1000;
+            }
+            p += size;
+        }
+        return time;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long dosToJavaTime(long dtime) {
+        Date d = new Date((int)(((dtime >> 25) & 0x7f) + 80),
+                          (int)(((dtime >> 21) & 0x0f) - 1),
+                          (int)((dtime >> 16) & 0x1f),
+                          (int)((dtime >> 11) & 0x1f),
+                          (int)((dtime >> 5) & 0x3f),
+                          (int)((dtime << 1) & 0x3e));
+        return d.getTime();
+    }
+
+    private static int ushort(ByteBuffer b, int p) {
+        return b.getShort(p) & 0xFFFF;
+    }
+
+    private static long uint(ByteBuffer b, int p) {
+        return b.getInt(p) & 0xFFFFFFFFL;
+    }
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final byte[] MANIFEST_BYTES = {'M','E','T','A','-','I','N','F','/','M','A','N','I','F','E','S','T','.','M','F'};
+
+    private static final int LOCSIG = 0x04034b50, CENSIG = 0x02014b50, ENDSIG = 0x06054b50;
+    private static final int LOCHDR = 30, CENHDR = 46, ENDHDR = 22;
+    private static final int STORED = 0, DEFLATED = 8;
+    private static final int EXTID_NTFS = 0x000a, EXTID_EXTT = 0x5455;
+    private static final long ZIP64 = 0xFFFFFFFFL;
+    /** Milliseconds from 1601-01-01, where NTFS times start, to 1970-01-01. */
+    private static final long WINDOWS_EPOCH = -11644473600000L;
+}
@@ -0,0 +1,189 @@
+package org.jvnet.hudson.update_center;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AdaptiveConcurrencyLimiterTest extends TestCase {
+    private final ManualClock clock = new ManualClock();
+
+    private AdaptiveConcurrencyLimiter limiter(int initial, int min, int max) {
+        return new AdaptiveConcurrencyLimiter("example.org", initial, min, max, clock);
+    }
+
+    /**
+     * Makes a successful request that takes the given time.
+     */
+    private void request(AdaptiveConcurrencyLimiter l, long ms) throws Exception {
+        AdaptiveConcurrencyLimiter.Permit p = l.acquire();
+        clock.advance(ms);
+        p.success();
+        p.release();
+    }
+
+    public void testAdditiveIncrease() throws Exception {
+        AdaptiveConcurrencyLimiter l = limiter(2, 1, 4);
+        // about one more for every limit-many requests
+        request(l, 10);
+        request(l, 10);
+        assertEquals(2, l.getLimit());
+        request(l, 10);
+        assertEquals(3, l.getLimit());
+        for (int i = 0; i < 3; i++)
+            request(l, 10);
+        assertEquals(4, l.getLimit());
+
+        // but never beyond the maximum
+        for (int i = 0; i < 100; i++)
+            request(l, 10);
+        assertEquals(4, l.getLimit());
+    }
+
+    public void testNoIncreaseWhileLatencyRises() throws Exception {
+        AdaptiveConcurrencyLimiter l = limiter(1, 1, 100);
+        for (int i = 0; i < 20; i++)
+            request(l, 10);
+        // the first slow one is only compared against the averages of those before it
+        request(l, 100);
+        int limit = l.getLimit();
+        assertTrue(limit > 1);
+
+        for (int i = 0; i < 50; i++)
+            request(l, 100 + i * 10);
+        assertEquals(limit, l.getLimit());
+
+        // once the baseline has caught up, it's flat again
+        for (int i = 0; i < 500; i++)
+            request(l, 600);
+        assertTrue(l.getLimit() > limit);
+    }
+
+    public void testMultiplicativeDecrease() throws Exception {
+        AdaptiveConcurrencyLimiter l = limiter(20, 3, 16);
+        assertEquals(16, l.getLimit());
+
+        l.acquire().overloaded();
+        assertEquals(8, l.getLimit());
+        l.acquire().failed(new SocketTimeoutException("Read timed out"));
+        assertEquals(4, l.getLimit());
+        l.acquire().failed(new IOException("Server returned HTTP response code: 429 for URL: http://example.org/"));
+        assertEquals(3, l.getLimit());
+        l.acquire().overloaded();
+        assertEquals(3, l.getLimit());
+
+        // neither of these says anything about the load
+        l.acquire().failed(new FileNotFoundException("http://example.org/missing"));
+        l.acquire().release();
+        assertEquals(3, l.getLimit());
+    }
+
+    public void testOnlyFirstOutcomeCounts() throws Exception {
+        AdaptiveConcurrencyLimiter l = limiter(8, 1, 16);
+        AdaptiveConcurrencyLimiter.Permit p = l.acquire();
+        p.success();
+        p.overloaded();
+        p.release();
+        assertEquals(8, l.getLimit());
+    }
+
+    public void testAcquireBlocksAtLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter l = limiter(2, 1, 4);
+        AdaptiveConcurrencyLimiter.Permit first = l.acquire();
+        l.acquire();
+
+        final AtomicReference<AdaptiveConcurrencyLimiter.Permit> third = new AtomicReference<AdaptiveConcurrencyLimiter.Permit>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    third.set(l.acquire());
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        t.start();
+        while (t.getState() != Thread.State.WAITING) {
+            assertTrue(t.isAlive());
+            Thread.yield();
+        }
+        assertNull(third.get());
+
+        first.release();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertNotNull(third.get());
+    }
+
+    /**
+     * How the HTTP Wagon, which resolves artifacts, reports an unexpected status code, wrapped like Maven does.
+     */
+    private static Exception wagon(String url, int status) {
+        return new Exception("Unable to download the artifact from any repository",
+                new IOException("Failed to transfer file: " + url + ". Return code is: " + status));
+    }
+
+    /**
+     * How Axis reports an unexpected status code of a SOAP request, as the message of an {@code AxisFault}.
+     */
+    private static Exception axis(int status, String reason) {
+        return new java.rmi.RemoteException("(" + status + ")" + reason);
+    }
+
+    public void testWagonAndAxisMessages() {
+        String hpi = "http://repo.jenkins-ci.org/public/org/jenkins-ci/plugins/foo/1.500/foo-1.500.hpi";
+        assertTrue(AdaptiveConcurrencyLimiter.isOverload(wagon(hpi, 503)));
+        assertTrue(AdaptiveConcurrencyLimiter.isOverload(wagon(hpi, 500)));
+        assertTrue(AdaptiveConcurrencyLimiter.isOverload(wagon(hpi, 429)));
+        assertFalse(AdaptiveConcurrencyLimiter.isOverload(wagon(hpi, 401)));
+        assertFalse(AdaptiveConcurrencyLimiter.isOverload(new Exception("File: " + hpi + " does not exist")));
+
+        assertTrue(AdaptiveConcurrencyLimiter.isOverload(axis(503, "Service Unavailable")));
+        assertTrue(AdaptiveConcurrencyLimiter.isOverload(axis(502, "Bad Gateway")));
+        assertFalse(AdaptiveConcurrencyLimiter.isOverload(axis(404, "Not Found")));
+        assertFalse(AdaptiveConcurrencyLimiter.isOverload(new Exception("No page with title 'Foo (500) Plugin'")));
+
+        assertTrue(AdaptiveConcurrencyLimiter.isOverload(new Exception("Gave up", new SocketTimeoutException("connect timed out"))));
+    }
+
+    /**
+     * What {@link java.net.HttpURLConnection} actually throws, as used by {@link ConfluencePluginList} and the index download.
+     */
+    public void testHttpURLConnectionMessages() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange e) throws IOException {
+                e.sendResponseHeaders(Integer.parseInt(e.getRequestURI().getPath().substring(1)), -1);
+                e.close();
+            }
+        });
+        server.start();
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+            assertTrue(AdaptiveConcurrencyLimiter.isOverload(get(base + "503")));
+            assertTrue(AdaptiveConcurrencyLimiter.isOverload(get(base + "500")));
+            assertTrue(AdaptiveConcurrencyLimiter.isOverload(get(base + "429")));
+            assertFalse(AdaptiveConcurrencyLimiter.isOverload(get(base + "404")));
+            assertFalse(AdaptiveConcurrencyLimiter.isOverload(get(base + "403")));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static IOException get(String url) throws Exception {
+        try {
+            RemoteHost.openConnection(new URL(url)).getInputStream().close();
+        } catch (IOException e) {
+            return e;
+        }
+        throw new AssertionError("Expected " + url + " to fail");
+    }
+}
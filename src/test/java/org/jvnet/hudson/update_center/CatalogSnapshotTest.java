@@ -0,0 +1,258 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import junit.framework.TestCase;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.GZIPOutputStream;
+
+public class CatalogSnapshotTest extends TestCase {
+    private final List<File> files = new ArrayList<File>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : files)
+            f.delete();
+    }
+
+    private File newFile() throws IOException {
+        File f = File.createTempFile("snapshot", ".ser.gz");
+        files.add(f);
+        return f;
+    }
+
+    /**
+     * A repository whose artifacts know everything already, like after a run has enriched them.
+     */
+    private static class Catalog extends MavenRepository {
+        final TreeMap<VersionNumber,HudsonWar> wars = new TreeMap<VersionNumber,HudsonWar>(VersionNumber.DESCENDING);
+        final List<PluginHistory> plugins = new ArrayList<PluginHistory>();
+
+        Catalog war(String version, String digest) {
+            HudsonWar w = new HudsonWar(this, new ArtifactCoordinates("org.jenkins-ci.main", "jenkins-war", version, "war", null));
+            w.restore(1000L, new ManifestSummary(new String[8]), digest);
+            wars.put(w.getVersion(), w);
+            return this;
+        }
+
+        Catalog plugin(String artifactId, String... versions) throws Exception {
+            PluginHistory p = new PluginHistory(artifactId);
+            p.groupId.add("org.jenkins-ci.plugins");
+            for (String v : versions) {
+                HPI h = new HPI(this, p, new ArtifactCoordinates("org.jenkins-ci.plugins", artifactId, v, "hpi", null));
+                String[] manifest = new String[8];
+                manifest[2] = "1.500";                  // Jenkins-Version
+                manifest[4] = artifactId + " " + v;     // Long-Name
+                h.restore(v.hashCode() & 0xFFFF, new ManifestSummary(manifest), "digest of " + artifactId + " " + v);
+                p.addArtifact(h);
+            }
+            plugins.add(p);
+            return this;
+        }
+
+        @Override
+        protected Collection<PluginHistory> scanHudsonPlugins() {
+            return plugins;
+        }
+
+        @Override
+        public TreeMap<VersionNumber,HudsonWar> getHudsonWar() {
+            return wars;
+        }
+
+        @Override
+        protected File resolve(ArtifactCoordinates a, String type, String classifier) {
+            throw new AssertionError("Nothing should be resolved: " + a);
+        }
+    }
+
+    private File write(Catalog c) throws Exception {
+        File f = newFile();
+        CatalogSnapshot.write(c, f);
+        return f;
+    }
+
+    public void testRoundTrip() throws Exception {
+        File f = write(new Catalog().war("1.500", "war digest").war("1.501", null).plugin("foo", "1.0", "1.1").plugin("bar", "2.0"));
+        MavenRepository r = CatalogSnapshot.read(f).getRepository();
+
+        TreeMap<VersionNumber,HudsonWar> wars = r.getHudsonWar();
+        assertEquals(Arrays.asList("1.501", "1.500"), versions(wars.values()));
+        assertEquals("war digest", wars.get(new VersionNumber("1.500")).getKnownDigest());
+        assertNull(wars.get(new VersionNumber("1.501")).getKnownDigest());
+        assertEquals(1000L, wars.get(new VersionNumber("1.500")).getTimestamp());
+
+        Collection<PluginHistory> plugins = r.listHudsonPlugins();
+        assertEquals(2, plugins.size());
+        PluginHistory foo = r.findPluginHistory("foo");
+        assertEquals(Arrays.asList("org.jenkins-ci.plugins"), new ArrayList<String>(foo.groupId));
+        assertEquals(Arrays.asList("1.1", "1.0"), versions(foo.artifacts.values()));
+        HPI h = foo.latest();
+        assertEquals("1.500", h.getRequiredJenkinsVersion());
+        assertEquals("foo 1.1", h.getManifestSummary().getValue("Long-Name"));
+        assertEquals("1.1".hashCode() & 0xFFFF, h.getTimestamp());
+        assertEquals("digest of foo 1.1", h.getKnownDigest());
+        assertSame(r, h.repository);
+    }
+
+    public void testMerge() throws Exception {
+        File first = write(new Catalog().war("1.500", null).war("1.501", "first 1.501").plugin("foo", "1.0"));
+        File second = write(new Catalog().war("1.500", "second 1.500").war("1.501", "second 1.501").war("1.502", null)
+                .plugin("foo", "1.0", "2.0").plugin("bar", "1.0"));
+        MavenRepository r = CatalogSnapshot.read(Arrays.asList(first, second)).getRepository();
+
+        // the first snapshot with a plugin wins, even if another one has more releases
+        assertEquals(Arrays.asList("1.0"), versions(r.findPluginHistory("foo").artifacts.values()));
+        assertEquals(Arrays.asList("1.0"), versions(r.findPluginHistory("bar").artifacts.values()));
+
+        // a war comes from the first snapshot that knows its digest
+        TreeMap<VersionNumber,HudsonWar> wars = r.getHudsonWar();
+        assertEquals(Arrays.asList("1.502", "1.501", "1.500"), versions(wars.values()));
+        assertEquals("second 1.500", wars.get(new VersionNumber("1.500")).getKnownDigest());
+        assertEquals("first 1.501", wars.get(new VersionNumber("1.501")).getKnownDigest());
+        assertNull(wars.get(new VersionNumber("1.502")).getKnownDigest());
+    }
+
+    public void testOnlyKnownDigests() throws Exception {
+        final File jar = newFile();
+        Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        m.getMainAttributes().putValue("Jenkins-Version", "1.500");
+        new JarOutputStream(new FileOutputStream(jar), m).close();
+
+        Catalog c = new Catalog() {
+            @Override
+            protected File resolve(ArtifactCoordinates a, String type, String classifier) {
+                return jar;
+            }
+        };
+        PluginHistory p = new PluginHistory("foo");
+        p.groupId.add("org.jenkins-ci.plugins");
+        HPI read = new HPI(c, p, new ArtifactCoordinates("org.jenkins-ci.plugins", "foo", "1.0", "hpi", null));
+        HPI rendered = new HPI(c, p, new ArtifactCoordinates("org.jenkins-ci.plugins", "foo", "1.1", "hpi", null));
+        p.addArtifact(read);
+        p.addArtifact(rendered);
+        c.plugins.add(p);
+
+        // both have been resolved, but only the rendered one had its digest computed
+        read.getManifestSummary();
+        String digest = rendered.getDigest();
+
+        // so writing the snapshot doesn't need the files anymore
+        assertTrue(jar.delete());
+        PluginHistory foo = CatalogSnapshot.read(write(c)).getRepository().findPluginHistory("foo");
+        assertEquals(digest, foo.artifacts.get(new VersionNumber("1.1")).getKnownDigest());
+        assertNull(foo.artifacts.get(new VersionNumber("1.0")).getKnownDigest());
+        assertEquals("1.500", foo.artifacts.get(new VersionNumber("1.0")).getRequiredJenkinsVersion());
+    }
+
+    public void testShards() throws Exception {
+        Catalog c = new Catalog().war("1.500", "war digest").war("1.501", null);
+        String[] names = {"foo", "bar", "baz", "Qux", "git", "git-client", "credentials", "ant", "maven-plugin", "zz"};
+        for (String n : names)
+            c.plugin(n, "1.0", "1.1");
+        String whole = describe(CatalogSnapshot.read(write(c)).getRepository());
+
+        for (int shards = 1; shards <= 4; shards++) {
+            // every plugin is in exactly one shard
+            List<String> seen = new ArrayList<String>();
+            List<File> snapshots = new ArrayList<File>();
+            for (int i = 0; i < shards; i++) {
+                ShardedMavenRepository shard = ShardedMavenRepository.parse(c, i + "/" + shards);
+                for (PluginHistory p : shard.listHudsonPlugins())
+                    seen.add(p.artifactId);
+                File f = newFile();
+                CatalogSnapshot.write(shard, f);
+                snapshots.add(f);
+            }
+            Collections.sort(seen);
+            List<String> all = new ArrayList<String>(Arrays.asList(names));
+            Collections.sort(all);
+            assertEquals(all, seen);
+
+            // and merging the shards gives the whole catalog back
+            assertEquals(whole, describe(CatalogSnapshot.read(snapshots).getRepository()));
+        }
+    }
+
+    /**
+     * Everything a snapshot records about the catalog, regardless of order.
+     */
+    private static String describe(MavenRepository r) throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (HudsonWar w : r.getHudsonWar().values())
+            b.append(describe(w)).append('\n');
+        TreeMap<String,String> plugins = new TreeMap<String,String>();
+        for (PluginHistory p : r.listHudsonPlugins()) {
+            StringBuilder s = new StringBuilder(p.groupId.toString());
+            for (HPI h : p.artifacts.values())
+                s.append(' ').append(describe(h));
+            plugins.put(p.artifactId, s.toString());
+        }
+        return b.append(plugins).toString();
+    }
+
+    private static String describe(MavenArtifact a) throws Exception {
+        return a.artifact + "@" + a.getTimestamp() + " " + Arrays.asList(a.getManifestSummary().getValues()) + " " + a.getKnownDigest();
+    }
+
+    public void testNotASnapshot() throws Exception {
+        File f = newFile();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write("not gzipped".getBytes());
+        out.close();
+        assertRejected(f, "is not a catalog snapshot");
+
+        f = newFile();
+        new GZIPOutputStream(new FileOutputStream(f)).close();
+        assertRejected(f, "is not a catalog snapshot");
+    }
+
+    public void testWithoutHeader() throws Exception {
+        // how snapshots started before they had a header
+        File f = newFile();
+        ObjectOutputStream o = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(f)));
+        o.writeInt(1);
+        o.writeInt(0);
+        o.close();
+        assertRejected(f, "written by an older version");
+    }
+
+    public void testOtherFormat() throws Exception {
+        File f = newFile();
+        DataOutputStream d = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(f)));
+        d.writeInt(0x4a43534e);
+        d.writeInt(999);
+        d.close();
+        assertRejected(f, "in format 999");
+    }
+
+    private static void assertRejected(File f, String message) {
+        try {
+            CatalogSnapshot.read(f);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static List<String> versions(Collection<? extends MavenArtifact> artifacts) {
+        List<String> r = new ArrayList<String>();
+        for (MavenArtifact a : artifacts)
+            r.add(a.version);
+        return r;
+    }
+}
@@ -0,0 +1,67 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase {
+    private final ManualClock clock = new ManualClock();
+    private final CircuitBreaker breaker = new CircuitBreaker("example.org", 3, 60000, clock);
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++)
+            breaker.onFailure();
+    }
+
+    public void testOpensAfterConsecutiveFailures() {
+        fail(2);
+        breaker.onSuccess();
+        fail(2);
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    public void testHalfOpen() {
+        fail(3);
+        clock.advance(59999);
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+
+        // once cooled down, a single trial request goes through
+        clock.advance(1);
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    public void testClosesWhenTrialSucceeds() {
+        fail(3);
+        clock.advance(60000);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        // and it takes as many failures as before to open it again
+        fail(2);
+        assertFalse(breaker.isOpen());
+    }
+
+    public void testReopensWhenTrialFails() {
+        fail(3);
+        clock.advance(60000);
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+
+        // for another full cool-down
+        assertTrue(breaker.isOpen());
+        clock.advance(59999);
+        assertFalse(breaker.allowRequest());
+        clock.advance(1);
+        assertTrue(breaker.allowRequest());
+    }
+}
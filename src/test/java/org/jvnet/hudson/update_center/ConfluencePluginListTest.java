@@ -1,23 +1,55 @@
 package org.jvnet.hudson.update_center;
 
 import hudson.plugins.jira.soap.ConfluenceSoapService;
+import hudson.plugins.jira.soap.RemoteLabel;
 import hudson.plugins.jira.soap.RemotePage;
+import hudson.plugins.jira.soap.RemotePageHistory;
 import hudson.plugins.jira.soap.RemotePageSummary;
 import junit.framework.TestCase;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ConfluencePluginListTest extends TestCase {
 
+    private static final String FOO_URL = "https://wiki.jenkins-ci.org/display/JENKINS/Foo+Plugin";
+
     private ConfluenceSoapService confluence;
+    private File cacheDir;
+
+    private final ManualClock clock = new ManualClock();
+    /** Opens at the first failure. */
+    private final CircuitBreaker breaker = new CircuitBreaker("wiki.jenkins-ci.org", 1, TimeUnit.MINUTES.toMillis(1), clock);
+    private final RemoteHost wiki = new RemoteHost("wiki.jenkins-ci.org",
+            new AdaptiveConcurrencyLimiter("wiki.jenkins-ci.org", 4, 1, 4, clock), breaker, 0);
 
     @Override
     protected void setUp() throws Exception {
         super.setUp();
         confluence = mock(ConfluenceSoapService.class);
         when(confluence.getPage("", "JENKINS", "Plugins")).thenReturn(new RemotePage());
+        cacheDir = Files.createTempDirectory("wiki-cache").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : cacheDir.listFiles())
+            f.delete();
+        cacheDir.delete();
+        super.tearDown();
     }
 
     public void testUnknownUrlsAreIgnored() throws Exception {
@@ -97,6 +129,155 @@ public class ConfluencePluginListTest extends TestCase {
         assertNull(pluginList.resolveWikiUrl("https://wiki.jenkins-ci.org/display/JENKINS/Spaces in URL Plugin"));
     }
 
+    public void testIsNewerThan() {
+        // The history only lists the versions that were superseded
+        assertFalse(ConfluencePluginList.isNewerThan(null, 3));
+        assertFalse(ConfluencePluginList.isNewerThan(new RemotePageHistory[0], 3));
+        assertFalse(ConfluencePluginList.isNewerThan(history(1, 2), 3));
+        assertTrue(ConfluencePluginList.isNewerThan(history(1, 2, 3), 3));
+        assertTrue(ConfluencePluginList.isNewerThan(history(4, 2, 1), 3));
+    }
+
+    public void testUnchangedPageCostsOneCall() throws Exception {
+        // Given a plugin page that we fetched more than a day ago, and that hasn't been edited since
+        addPluginPages(FOO_URL);
+        RemotePage page = page(42, 3);
+        when(confluence.getPage("", "JENKINS", "Foo Plugin")).thenReturn(page);
+        when(confluence.getLabelsById("", 42L)).thenReturn(labels("plugin-misc"));
+        when(confluence.getPageHistory("", 42L)).thenReturn(history(1, 2));
+        ConfluencePluginList pluginList = new ConfluencePluginList(confluence, cacheDir);
+        assertEquals(Arrays.asList("misc"), Arrays.asList(pluginList.getPage(FOO_URL).getLabels()));
+        age(2);
+
+        // When we need it again
+        WikiPage p = pluginList.getPage(FOO_URL);
+
+        // Then we should only have checked its history, and kept it for another day
+        assertEquals(Arrays.asList("misc"), Arrays.asList(p.getLabels()));
+        verify(confluence, times(1)).getPage("", "JENKINS", "Foo Plugin");
+        verify(confluence, times(1)).getLabelsById("", 42L);
+        verify(confluence, times(1)).getPageHistory("", 42L);
+        assertTrue(System.currentTimeMillis() - cache().lastModified() < TimeUnit.HOURS.toMillis(1));
+    }
+
+    public void testLabelsOfUnchangedPageAreRefreshedOnceOld() throws Exception {
+        // Given a plugin page that hasn't been edited since we fetched it, with labels from long ago
+        addPluginPages(FOO_URL);
+        cache(new WikiPage(page(42, 3), labels("plugin-old"), System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30)));
+        age(2);
+        when(confluence.getPageHistory("", 42L)).thenReturn(history(1, 2));
+        when(confluence.getLabelsById("", 42L)).thenReturn(labels("plugin-new"));
+
+        // When we need it
+        WikiPage p = new ConfluencePluginList(confluence, cacheDir).getPage(FOO_URL);
+
+        // Then we should have refetched the labels, but not the page
+        assertEquals(Arrays.asList("new"), Arrays.asList(p.getLabels()));
+        verify(confluence, never()).getPage("", "JENKINS", "Foo Plugin");
+        verify(confluence, times(1)).getLabelsById("", 42L);
+    }
+
+    public void testEditedPageIsRefetched() throws Exception {
+        // Given a plugin page that has been edited since we fetched it
+        addPluginPages(FOO_URL);
+        cache(new WikiPage(page(42, 3), labels("plugin-misc")));
+        age(2);
+        when(confluence.getPageHistory("", 42L)).thenReturn(history(1, 2, 3));
+        when(confluence.getPage("", "JENKINS", "Foo Plugin")).thenReturn(page(42, 4));
+        when(confluence.getLabelsById("", 42L)).thenReturn(labels("plugin-misc"));
+
+        // When we need it
+        WikiPage p = new ConfluencePluginList(confluence, cacheDir).getPage(FOO_URL);
+
+        // Then we should have the new version
+        assertEquals(4, p.page.getVersion());
+    }
+
+    public void testStalePageWhenBreakerOpens() throws Exception {
+        // Given a plugin page that we fetched more than a day ago
+        addPluginPages(FOO_URL);
+        cache(new WikiPage(page(42, 3), labels("plugin-misc")));
+        age(2);
+        ConfluencePluginList pluginList = new ConfluencePluginList(confluence, cacheDir, wiki);
+
+        // When the wiki times out, which is enough to open the breaker
+        when(confluence.getPageHistory("", 42L)).thenThrow(new RemoteException("SOAP call failed", new SocketTimeoutException("Read timed out")));
+        WikiPage p = pluginList.getPage(FOO_URL);
+
+        // Then we should use the page we have, without retrying, and keep it for when the wiki is back
+        assertEquals(3, p.page.getVersion());
+        verify(confluence, times(1)).getPageHistory("", 42L);
+        assertTrue(cache().exists());
+        assertFalse(new File(cacheDir, "Foo Plugin.page.failed").exists());
+    }
+
+    public void testNoPageWhileBreakerIsOpen() throws Exception {
+        // Given a plugin page that we've never fetched, and a wiki that has been failing
+        addPluginPages(FOO_URL);
+        ConfluencePluginList pluginList = new ConfluencePluginList(confluence, cacheDir, wiki);
+        breaker.onFailure();
+
+        // When we need the page, then we should fail without calling the wiki
+        try {
+            pluginList.getPage(FOO_URL);
+            fail();
+        } catch (RemoteHost.CircuitOpenException e) {
+            // expected
+        }
+        verify(confluence, never()).getPage("", "JENKINS", "Foo Plugin");
+
+        // And we should try again as soon as it's back
+        assertFalse(new File(cacheDir, "Foo Plugin.page.failed").exists());
+        clock.advance(TimeUnit.MINUTES.toMillis(1));
+        when(confluence.getPage("", "JENKINS", "Foo Plugin")).thenReturn(page(42, 3));
+        assertEquals(3, pluginList.getPage(FOO_URL).page.getVersion());
+    }
+
+    private static RemotePage page(long id, int version) {
+        RemotePage p = new RemotePage();
+        p.setId(id);
+        p.setVersion(version);
+        p.setTitle("Foo Plugin");
+        p.setUrl(FOO_URL);
+        return p;
+    }
+
+    private static RemoteLabel[] labels(String... names) {
+        RemoteLabel[] labels = new RemoteLabel[names.length];
+        for (int i = 0; i < names.length; i++) {
+            labels[i] = new RemoteLabel();
+            labels[i].setName(names[i]);
+        }
+        return labels;
+    }
+
+    private static RemotePageHistory[] history(int... versions) {
+        RemotePageHistory[] history = new RemotePageHistory[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            history[i] = new RemotePageHistory();
+            history[i].setVersion(versions[i]);
+        }
+        return history;
+    }
+
+    private File cache() {
+        return new File(cacheDir, "Foo Plugin.page");
+    }
+
+    private void cache(WikiPage page) throws Exception {
+        ObjectOutputStream o = new ObjectOutputStream(new FileOutputStream(cache()));
+        try {
+            o.writeObject(page);
+        } finally {
+            o.close();
+        }
+    }
+
+    /** Makes the cached page look like it was fetched the given number of days ago. */
+    private void age(int days) {
+        assertTrue(cache().setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days)));
+    }
+
     /** Adds zero or more plugins to the "wiki". */
     private void addPluginPages(String... urls) throws Exception {
         RemotePageSummary[] pluginPages = new RemotePageSummary[urls.length];
@@ -0,0 +1,181 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class EnrichmentTest extends TestCase {
+    private final List<PluginHistory> plugins = new ArrayList<PluginHistory>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private File dir;
+
+    /**
+     * Artifacts in the order they were resolved.
+     */
+    private final List<String> resolved = new ArrayList<String>();
+    /**
+     * Resolving these waits for the latch first.
+     */
+    private final Map<String,CountDownLatch> gates = new HashMap<String,CountDownLatch>();
+    /**
+     * Counted down as these are resolved.
+     */
+    private final Map<String,CountDownLatch> seen = new HashMap<String,CountDownLatch>();
+
+    /**
+     * Like the one in {@link SegmentIndexTest}, except that artifacts resolve to jars that only have a manifest,
+     * or to nothing for versions ending with "-broken".
+     */
+    private final MavenRepository repository = new MavenRepository() {
+        @Override
+        protected Collection<PluginHistory> scanHudsonPlugins() {
+            return plugins;
+        }
+
+        @Override
+        public TreeMap<VersionNumber, HudsonWar> getHudsonWar() {
+            return new TreeMap<VersionNumber, HudsonWar>();
+        }
+
+        @Override
+        protected File resolve(ArtifactCoordinates a, String type, String classifier) {
+            String id = a.artifactId + ":" + a.version;
+            CountDownLatch gate, s;
+            synchronized (resolved) {
+                resolved.add(id);
+                gate = gates.get(id);
+                s = seen.get(id);
+            }
+            if (s != null)
+                s.countDown();
+            try {
+                if (gate != null)
+                    assertTrue(gate.await(10, TimeUnit.SECONDS));
+                File f = new File(dir, id.replace(':', '-') + ".hpi");
+                if (!a.version.endsWith("-broken"))
+                    writeJar(f);
+                return f;
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("enrichment").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private static void writeJar(File f) throws Exception {
+        Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        m.getMainAttributes().putValue("Jenkins-Version", "1.500");
+        new JarOutputStream(new FileOutputStream(f), m).close();
+    }
+
+    private void plugin(String artifactId, String... versions) throws Exception {
+        PluginHistory h = new PluginHistory(artifactId);
+        h.groupId.add("org.jenkins-ci.plugins");
+        for (String v : versions)
+            h.addArtifact(new HPI(repository, h, new ArtifactCoordinates("org.jenkins-ci.plugins", artifactId, v, "hpi", null)));
+        plugins.add(h);
+    }
+
+    private CountDownLatch gate(String id) {
+        CountDownLatch l = new CountDownLatch(1);
+        gates.put(id, l);
+        return l;
+    }
+
+    private CountDownLatch seen(String id) {
+        CountDownLatch l = new CountDownLatch(1);
+        seen.put(id, l);
+        return l;
+    }
+
+    private List<String> resolved() {
+        synchronized (resolved) {
+            return new ArrayList<String>(resolved);
+        }
+    }
+
+    public void testLanes() throws Exception {
+        plugin("foo", "3.0-broken", "2.0", "1.0", "0.9");
+        plugin("bar", "1.0");
+        CountDownLatch bar = gate("bar:1.0");
+        CountDownLatch oldest = gate("foo:0.9");
+        CountDownLatch latest = seen("foo:1.0");
+        CountDownLatch background = seen("foo:0.9");
+
+        final Enrichment e = new Enrichment(repository.listHudsonPlugins());
+        Future<?> await = executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                e.await();
+                return null;
+            }
+        });
+
+        // the fast lane skips the broken release, and stops after two it can read
+        assertTrue(latest.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(new HashSet<String>(Arrays.asList("foo:3.0-broken", "foo:2.0", "foo:1.0", "bar:1.0")),
+                new HashSet<String>(resolved()));
+        assertNotNull(findVersion("foo", "1.0").getKnownManifestSummary());
+        assertNull(findVersion("foo", "0.9").getKnownManifestSummary());
+
+        // the background lane waits for the fast lane, however far along foo is
+        assertFalse(await.isDone());
+        bar.countDown();
+        assertTrue(background.await(10, TimeUnit.SECONDS));
+        assertEquals("foo:0.9", resolved().get(4));
+
+        // and await() waits for the background lane
+        Thread.sleep(100);
+        assertFalse(await.isDone());
+        oldest.countDown();
+        await.get(10, TimeUnit.SECONDS);
+        assertNotNull(findVersion("foo", "0.9").getKnownManifestSummary());
+        assertEquals(5, resolved().size());
+    }
+
+    public void testNoPlugins() throws Exception {
+        Enrichment e = new Enrichment(new ArrayList<PluginHistory>());
+        e.await();
+        assertTrue(resolved().isEmpty());
+    }
+
+    private HPI findVersion(String artifactId, String version) throws Exception {
+        for (HPI h : repository.findPluginHistory(artifactId).artifacts.values())
+            if (h.version.equals(version))
+                return h;
+        throw new AssertionError(artifactId + ":" + version);
+    }
+}
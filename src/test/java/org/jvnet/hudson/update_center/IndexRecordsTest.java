@@ -0,0 +1,113 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+import org.sonatype.nexus.index.ArtifactInfo;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class IndexRecordsTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("records", "");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private static ArtifactInfo record(String groupId, String artifactId, String version, String packaging, String classifier) {
+        ArtifactInfo a = new ArtifactInfo();
+        a.groupId = groupId;
+        a.artifactId = artifactId;
+        a.version = version;
+        a.packaging = packaging;
+        a.classifier = classifier;
+        return a;
+    }
+
+    private IndexRecords sample() {
+        IndexRecords r = new IndexRecords("central@123 ignores@456");
+        r.put("plugins", Arrays.asList(
+                record("org.jenkins-ci.plugins", "foo", "1.0", "hpi", null),
+                record("org.jenkins-ci.plugins", "foo", "1.1", "hpi", null),
+                record("org.jvnet.hudson.plugins", "b\u00e4r", "1.0", "jpi", "sources")));
+        r.put("wars:org.jenkins-ci.main", Arrays.asList(
+                record("org.jenkins-ci.main", "jenkins-war", "1.500", "war", null)));
+        r.put("empty", Collections.<ArtifactInfo>emptyList());
+        return r;
+    }
+
+    public void testRoundTrip() throws Exception {
+        sample().save(file);
+        IndexRecords r = IndexRecords.load(file, "central@123 ignores@456");
+        assertNotNull(r);
+
+        assertEquals(Arrays.asList("org.jenkins-ci.plugins:foo:1.0:hpi:null", "org.jenkins-ci.plugins:foo:1.1:hpi:null",
+                "org.jvnet.hudson.plugins:b\u00e4r:1.0:jpi:sources"), toString(r.get("plugins")));
+        assertEquals(Arrays.asList("org.jenkins-ci.main:jenkins-war:1.500:war:null"), toString(r.get("wars:org.jenkins-ci.main")));
+        assertEquals(Collections.emptyList(), r.get("empty"));
+        assertNull(r.get("other"));
+    }
+
+    public void testMissingFile() throws Exception {
+        file.delete();
+        assertNull(IndexRecords.load(file, "central@123 ignores@456"));
+    }
+
+    public void testOtherKey() throws Exception {
+        sample().save(file);
+        assertNull(IndexRecords.load(file, "central@124 ignores@456"));
+        assertNull(IndexRecords.load(file, ""));
+    }
+
+    public void testNotRecords() throws Exception {
+        Files.write(file.toPath(), "something else entirely".getBytes());
+        assertNull(IndexRecords.load(file, "central@123 ignores@456"));
+    }
+
+    public void testTruncated() throws Exception {
+        sample().save(file);
+        byte[] data = Files.readAllBytes(file.toPath());
+        for (int len = 0; len < data.length; len++) {
+            Files.write(file.toPath(), Arrays.copyOf(data, len));
+            assertNull("truncated to " + len, IndexRecords.load(file, "central@123 ignores@456"));
+        }
+    }
+
+    /**
+     * Whatever int is corrupted, and into whatever, loading must not fail or allocate wildly.
+     */
+    public void testCorrupted() throws Exception {
+        sample().save(file);
+        byte[] data = Files.readAllBytes(file.toPath());
+        for (int value : new int[] {Integer.MAX_VALUE, Integer.MIN_VALUE, -1, 1 << 24}) {
+            for (int pos = 0; pos + 4 <= data.length; pos++) {
+                Files.write(file.toPath(), data);
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.seek(pos);
+                    raf.writeInt(value);
+                } finally {
+                    raf.close();
+                }
+                IndexRecords.load(file, "central@123 ignores@456");
+            }
+        }
+    }
+
+    private static List<String> toString(List<ArtifactInfo> records) {
+        List<String> r = new ArrayList<String>();
+        for (ArtifactInfo a : records)
+            r.add(a.groupId + ':' + a.artifactId + ':' + a.version + ':' + a.packaging + ':' + a.classifier);
+        return r;
+    }
+}
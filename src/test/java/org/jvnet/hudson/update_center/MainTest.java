@@ -0,0 +1,81 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+import org.kohsuke.args4j.CmdLineException;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What {@link Main#validateOptions()} rejects before anything is downloaded.
+ */
+public class MainTest extends TestCase {
+    private Main segments(String... specs) {
+        Main m = new Main();
+        m.www = new File("www");
+        m.segments.addAll(Arrays.asList(specs));
+        return m;
+    }
+
+    private static String invalid(Main m) {
+        try {
+            m.validateOptions();
+        } catch (CmdLineException e) {
+            return e.getMessage();
+        }
+        throw new AssertionError("Expected the options to be rejected");
+    }
+
+    public void testSegments() throws Exception {
+        segments("stable-1.651:1.651.999:1.651.999", "experimental::2.999:include", "current:::ONLY").validateOptions();
+
+        List<Segment> parsed = Main.parseSegments(Arrays.asList("stable:1.651.999", "experimental:::only"));
+        assertEquals("stable", parsed.get(0).name);
+        assertEquals(Segment.Experimental.EXCLUDE, parsed.get(0).experimental);
+        assertEquals(Segment.Experimental.ONLY, parsed.get(1).experimental);
+    }
+
+    public void testUnknownExperimental() {
+        String msg = invalid(segments("stable:1.651.999", "experimental:::yes"));
+        assertTrue(msg, msg.contains("yes"));
+        assertTrue(msg, msg.contains("include, exclude, only"));
+    }
+
+    public void testMalformedSegment() {
+        for (String spec : new String[] {"stable", ":1.651.999", "a:b:c:d:e"}) {
+            String msg = invalid(segments(spec));
+            assertTrue(msg, msg.contains("NAME:CAP:CAPCORE:EXPERIMENTAL"));
+        }
+    }
+
+    public void testDuplicateSegment() {
+        String msg = invalid(segments("stable:1.651.999", "experimental:::only", "stable:1.625.999"));
+        assertTrue(msg, msg.contains("stable"));
+    }
+
+    private static Main shard(String spec) {
+        Main m = new Main();
+        m.shard = spec;
+        m.snapshot = new File("snapshot.ser.gz");
+        return m;
+    }
+
+    public void testShard() throws Exception {
+        shard("0/1").validateOptions();
+        shard("2/3").validateOptions();
+
+        for (String spec : new String[] {"3/3", "4/3", "-1/3", "0/0", "0/-1", "1", "1/", "a/b"})
+            invalid(shard(spec));
+
+        Main m = shard("0/2");
+        m.snapshot = null;
+        assertTrue(invalid(m).contains("-snapshot"));
+    }
+
+    public void testSegmentRequiresWww() {
+        Main m = segments("stable:1.651.999");
+        m.www = null;
+        invalid(m);
+    }
+}
@@ -0,0 +1,90 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * How expanded versions of an index are published and cleaned up, without downloading any.
+ */
+public class MavenRepositoryImplTest extends TestCase {
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("maven-index").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children!=null)
+            for (File c : children)
+                delete(c);
+        f.delete();
+    }
+
+    /**
+     * Expands an index into its staging directory, like loadIndex does.
+     */
+    private File stage(long lastModified, String content) throws IOException {
+        File staging = new File(dir, MavenRepositoryImpl.getExpanded(dir, lastModified).getName()+".tmp");
+        assertTrue(staging.mkdirs());
+        Files.write(new File(staging, "segments").toPath(), content.getBytes("UTF-8"));
+        return staging;
+    }
+
+    private static String content(File expanded) throws IOException {
+        return new String(Files.readAllBytes(new File(expanded, "segments").toPath()), "UTF-8");
+    }
+
+    public void testPublish() throws Exception {
+        File staging = stage(1000, "first");
+        File expanded = MavenRepositoryImpl.getExpanded(dir, 1000);
+        MavenRepositoryImpl.publish(staging, expanded);
+
+        assertEquals("first", content(expanded));
+        assertFalse(staging.exists());
+    }
+
+    public void testPublishSameVersionAgain() throws Exception {
+        File expanded = MavenRepositoryImpl.getExpanded(dir, 1000);
+        MavenRepositoryImpl.publish(stage(1000, "first"), expanded);
+
+        // another generator may be reading the published one, so it's left alone
+        File staging = stage(1000, "second");
+        MavenRepositoryImpl.publish(staging, expanded);
+        assertEquals("first", content(expanded));
+        assertFalse(staging.exists());
+    }
+
+    public void testRemoveUnusedIndices() throws Exception {
+        for (long v : new long[] {1000, 2000, 3000})
+            MavenRepositoryImpl.publish(stage(v, "v"+v), MavenRepositoryImpl.getExpanded(dir, v));
+        // left behind by a generator that died while expanding
+        stage(4000, "v4000");
+        Files.write(new File(dir, "index.gz").toPath(), new byte[0]);
+        Files.write(new File(dir, ".lock").toPath(), new byte[0]);
+
+        // 2000 is in use, by this process as it happens; 1000 was used once, but isn't anymore
+        ProcessLock.holdShared(new File(dir, "expanded-2000.lock"));
+        Files.write(new File(dir, "expanded-1000.lock").toPath(), new byte[0]);
+
+        MavenRepositoryImpl.removeUnusedIndices(dir);
+        assertEquals(new TreeSet<String>(Arrays.asList(".lock", "index.gz", "expanded-2000", "expanded-2000.lock")),
+                new TreeSet<String>(Arrays.asList(dir.list())));
+        assertEquals("v2000", content(new File(dir, "expanded-2000")));
+
+        // once in use, always in use, as far as this process goes
+        MavenRepositoryImpl.removeUnusedIndices(dir);
+        assertTrue(new File(dir, "expanded-2000").exists());
+    }
+}
@@ -0,0 +1,162 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.plugins.jira.soap.RemoteLabel;
+import hudson.plugins.jira.soap.RemotePage;
+import hudson.util.VersionNumber;
+import junit.framework.TestCase;
+import net.sf.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeMap;
+
+/**
+ * What goes into {@link Plugin#getRenderingKey()}, and what {@link Plugin#toJSON()} keeps in the {@link RenderedEntryCache}.
+ */
+public class PluginTest extends TestCase {
+    private File dir;
+
+    /**
+     * Artifacts know everything already, so nothing is ever resolved.
+     */
+    private final MavenRepository repository = new MavenRepository() {
+        @Override
+        protected Collection<PluginHistory> scanHudsonPlugins() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public TreeMap<VersionNumber, HudsonWar> getHudsonWar() {
+            return new TreeMap<VersionNumber, HudsonWar>();
+        }
+
+        @Override
+        protected File resolve(ArtifactCoordinates a, String type, String classifier) {
+            throw new AssertionError("Resolved " + a);
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("rendered").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children!=null)
+            for (File c : children)
+                delete(c);
+        f.delete();
+    }
+
+    private HPI hpi(String artifactId, String version, long timestamp, String dependencies) throws Exception {
+        PluginHistory p = new PluginHistory(artifactId);
+        p.groupId.add("org.jenkins-ci.plugins.test");
+        HPI h = new HPI(repository, p, new ArtifactCoordinates("org.jenkins-ci.plugins.test", artifactId, version, "hpi", null));
+        String[] manifest = new String[8];
+        manifest[2] = "1.500";                  // Jenkins-Version
+        manifest[4] = artifactId + " " + version; // Long-Name
+        manifest[6] = dependencies;             // Plugin-Dependencies
+        h.restore(timestamp, new ManifestSummary(manifest), "digest of " + artifactId + " " + version);
+        return h;
+    }
+
+    private HPI hpi(String version) throws Exception {
+        return hpi("foo", version, 1000L, "bar:1.0");
+    }
+
+    private static PomFacts pom(String description, String scm) throws Exception {
+        String xml = "<project>" +
+                "<parent><artifactId>plugin</artifactId></parent>" +
+                "<name>Foo Plugin</name>" +
+                (description != null ? "<description>" + description + "</description>" : "") +
+                (scm != null ? "<scm><connection>" + scm + "</connection></scm>" : "") +
+                "</project>";
+        return PomFacts.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    private static WikiPage page(long version, String... labels) {
+        RemotePage p = new RemotePage();
+        p.setId(42L);
+        p.setVersion((int) version);
+        p.setTitle("Foo Plugin");
+        p.setUrl("https://wiki.jenkins-ci.org/display/JENKINS/Foo+Plugin");
+        RemoteLabel[] l = new RemoteLabel[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            l[i] = new RemoteLabel();
+            l[i].setName(labels[i]);
+        }
+        return new WikiPage(p, l);
+    }
+
+    private String key(int format, HPI latest, HPI previous, PomFacts pom, WikiPage page) throws Exception {
+        return Plugin.getRenderingKey(format, "foo", latest, previous, pom, page);
+    }
+
+    public void testEveryInputChangesTheKey() throws Exception {
+        PomFacts pom = pom("Does things", null);
+        WikiPage page = page(5, "plugin-misc");
+        String key = key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), pom, page);
+        assertEquals(key, key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), pom("Does things", null), page(5, "plugin-misc")));
+
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), pom, page(6, "plugin-misc"))));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), pom, page(5, "plugin-misc", "plugin-scm"))));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("foo", "2.0", 1000L, "bar:1.1"), hpi("1.0"), pom, page)));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), pom("Does other things", null), page)));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), pom("Does things", "scm:git:git://github.com/jenkinsci/foo-plugin.git"), page)));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.1"), pom, page)));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("foo", "1.0", 2000L, "bar:1.0"), pom, page)));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), null, pom, page)));
+        // a release redeployed under the same version
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("foo", "2.0", 2000L, "bar:1.0"), hpi("1.0"), pom, page)));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), pom, null)));
+        assertFalse(key.equals(key(Plugin.RENDERING_FORMAT, hpi("2.0"), hpi("1.0"), null, page)));
+    }
+
+    public void testFormatBumpInvalidates() throws Exception {
+        String scm = "scm:git:git://github.com/jenkinsci/foo-plugin.git";
+        Plugin p = plugin("format", scm);
+        RenderedEntryCache cache = new RenderedEntryCache(dir);
+
+        // what the previous format rendered from the same inputs
+        String old = RenderedEntryCache.keyOf(Plugin.getRenderingKey(Plugin.RENDERING_FORMAT - 1, "format", p.latest, p.previous, pom(null, scm), null));
+        cache.put(old, "{\"name\":\"stale\"}");
+
+        JSONObject json = p.toJSON(cache);
+        assertEquals("format", json.getString("name"));
+        assertEquals("github.com", json.getString("scm"));
+        String key = RenderedEntryCache.keyOf(p.getRenderingKey());
+        assertFalse(key.equals(old));
+        assertEquals(json.toString(), cache.get(key));
+    }
+
+    public void testIncompleteRenderIsNotStored() throws Exception {
+        // no scm/connection, and a parent that can't be read, so the "scm" field is left out
+        Plugin p = plugin("incomplete", null);
+        RenderedEntryCache cache = new RenderedEntryCache(dir);
+        JSONObject json = p.toJSON(cache);
+
+        assertFalse(json.has("scm"));
+        assertTrue(p.isIncomplete());
+        assertNull(cache.get(RenderedEntryCache.keyOf(p.getRenderingKey())));
+        assertEquals(0, dir.list().length);
+    }
+
+    /**
+     * A plugin without a wiki page, whose POM is known already.
+     */
+    private Plugin plugin(String artifactId, String scm) throws Exception {
+        HPI latest = hpi(artifactId, "2.0", 2000L, null);
+        HPI previous = hpi(artifactId, "1.0", 1000L, null);
+        PomFacts.remember("org.jenkins-ci.plugins.test/" + artifactId + "/2.0", pom(null, scm));
+        return new Plugin(artifactId, latest, previous, null);
+    }
+}
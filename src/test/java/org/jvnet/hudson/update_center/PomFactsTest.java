@@ -0,0 +1,218 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import junit.framework.TestCase;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeMap;
+
+public class PomFactsTest extends TestCase {
+    private static final String NS = "xmlns='http://maven.apache.org/POM/4.0.0' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'";
+
+    private static final String PLAIN =
+            "<?xml version='1.0' encoding='UTF-8'?>\n" +
+            "<project>\n" +
+            "  <parent><groupId>org.jenkins-ci.plugins</groupId><artifactId>plugin</artifactId><version>1.400</version></parent>\n" +
+            "  <artifactId>foo</artifactId>\n" +
+            "  <name>  Foo\n    Plugin </name>\n" +
+            "  <description>Does <b>nothing</b> at\tall</description>\n" +
+            "  <url>http://wiki.jenkins-ci.org/display/JENKINS/Foo+Plugin</url>\n" +
+            "  <scm><connection><![CDATA[scm:git:git://github.com/jenkinsci/foo-plugin.git]]></connection><url>http://example.org/scm</url></scm>\n" +
+            "  <organization><name>Not the name</name><url>http://example.org/org</url></organization>\n" +
+            "  <developers><developer><id>kohsuke</id><url>http://example.org/dev</url></developer></developers>\n" +
+            "  <build><plugins><plugin><artifactId>maven-hpi-plugin</artifactId></plugin></plugins></build>\n" +
+            "</project>\n";
+
+    private static final String NAMESPACED = PLAIN.replace("<project>", "<project " + NS + ">");
+
+    private static final String PREFIXED = PLAIN
+            .replaceAll("<(/?)(\\w)", "<$1pom:$2")
+            .replace("<pom:project>", "<pom:project xmlns:pom='http://maven.apache.org/POM/4.0.0'>");
+
+    private static final String EMPTY = "<project><modelVersion>4.0.0</modelVersion><artifactId>bar</artifactId></project>";
+
+    private static final String DUPLICATES =
+            "<project><url>first</url><url>second</url><scm><connection/></scm>" +
+            "<profiles><profile><url>nested</url></profile></profiles></project>";
+
+    private static PomFacts parse(String pom) throws XMLStreamException {
+        return PomFacts.parse(new ByteArrayInputStream(pom.getBytes()));
+    }
+
+    public void testPlain() throws Exception {
+        PomFacts f = parse(PLAIN);
+        assertEquals("http://wiki.jenkins-ci.org/display/JENKINS/Foo+Plugin", f.url);
+        assertEquals("Foo Plugin", f.name);
+        assertEquals("Does at all", f.description);
+        assertEquals("scm:git:git://github.com/jenkinsci/foo-plugin.git", f.scmConnection);
+        ArtifactCoordinates p = f.getParent();
+        assertEquals("org.jenkins-ci.plugins", p.groupId);
+        assertEquals("plugin", p.artifactId);
+        assertEquals("1.400", p.version);
+        assertEquals("pom", p.packaging);
+    }
+
+    public void testNamespacesAreIgnored() throws Exception {
+        assertSameFacts(parse(PLAIN), parse(NAMESPACED));
+        assertSameFacts(parse(PLAIN), parse(PREFIXED));
+    }
+
+    public void testMissingValues() throws Exception {
+        PomFacts f = parse(EMPTY);
+        assertNull(f.url);
+        assertNull(f.name);
+        assertNull(f.description);
+        assertNull(f.scmConnection);
+        assertNull(f.getParent());
+    }
+
+    public void testFirstOccurrenceAtTheRightDepth() throws Exception {
+        PomFacts f = parse(DUPLICATES);
+        assertEquals("first", f.url);
+        assertEquals("", f.scmConnection);
+    }
+
+    public void testIncompleteParent() throws Exception {
+        PomFacts f = parse("<project><parent><groupId>g</groupId><artifactId>a</artifactId></parent></project>");
+        try {
+            f.getParent();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMalformed() throws Exception {
+        String[] broken = {
+                "<project><url>foo</project>",
+                "<project><url>foo</url>",
+                "not xml at all",
+                "",
+                "<project><url>a &undefined; b</url></project>",
+        };
+        for (String pom : broken) {
+            try {
+                parse(pom);
+                fail(pom);
+            } catch (XMLStreamException e) {
+                // expected
+            }
+            try {
+                dom4j(pom);
+                fail(pom);
+            } catch (DocumentException e) {
+                // the old code didn't get anything out of these either
+            }
+        }
+    }
+
+    /**
+     * Only scm/connection is looked up in the parents, like the old code did; url, name and description are
+     * those of the POM itself. Developers come from the manifest, not from the POM.
+     */
+    public void testParentInheritance() throws Exception {
+        String g = "org.example.pomfactstest";
+        PomFacts grandparent = parse("<project><url>gp</url><scm><connection>scm:git:git://example.org/gp.git</connection></scm></project>");
+        PomFacts parent = parse("<project " + NS + "><parent><groupId>" + g + "</groupId><artifactId>gp</artifactId><version>1</version></parent>" +
+                "<url>parent</url></project>");
+        PomFacts child = parse("<project><parent><groupId>" + g + "</groupId><artifactId>parent</artifactId><version>2</version></parent></project>");
+        PomFacts.remember(g + "/gp/1", grandparent);
+        PomFacts.remember(g + "/parent/2", parent);
+
+        MavenRepository repository = new UnresolvableRepository();
+        assertNull(child.url);
+        assertNull(child.scmConnection);
+        assertNull(child.findScmConnection(repository, 0));
+        assertNull(child.findScmConnection(repository, 1));
+        assertEquals("scm:git:git://example.org/gp.git", child.findScmConnection(repository, 2));
+        assertEquals("scm:git:git://example.org/gp.git", parent.findScmConnection(repository, 1));
+        assertEquals("scm:git:git://example.org/gp.git", grandparent.findScmConnection(repository, 0));
+
+        PomFacts orphan = parse("<project><parent><groupId>" + g + "</groupId><artifactId>missing</artifactId><version>1</version></parent></project>");
+        try {
+            orphan.findScmConnection(repository, 1);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compares with the dom4j queries this replaces.
+     */
+    public void testSameAsDom4j() throws Exception {
+        for (String pom : new String[] {PLAIN, NAMESPACED, PREFIXED, EMPTY, DUPLICATES}) {
+            PomFacts f = parse(pom);
+            Document d = dom4j(pom);
+            assertEquals(pom, selectSingleValue(d, "/project/url"), f.url);
+            assertEquals(pom, selectSingleValue(d, "/project/name"), f.name);
+            assertEquals(pom, selectSingleValue(d, "/project/description"), f.description);
+            assertEquals(pom, selectSingleValue(d, "/project/scm/connection"), f.scmConnection);
+
+            Element parent = (Element)selectSingleNode(d, "/project/parent");
+            if (parent == null) {
+                assertNull(pom, f.getParent());
+            } else {
+                assertEquals(pom, parent.element("groupId").getTextTrim(), f.getParent().groupId);
+                assertEquals(pom, parent.element("artifactId").getTextTrim(), f.getParent().artifactId);
+                assertEquals(pom, parent.element("version").getTextTrim(), f.getParent().version);
+            }
+        }
+    }
+
+    private static void assertSameFacts(PomFacts expected, PomFacts actual) throws IOException {
+        assertEquals(expected.url, actual.url);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.description, actual.description);
+        assertEquals(expected.scmConnection, actual.scmConnection);
+        assertEquals(expected.getParent(), actual.getParent());
+    }
+
+    private static Document dom4j(String pom) throws DocumentException {
+        DocumentFactory factory = new DocumentFactory();
+        factory.setXPathNamespaceURIs(
+                Collections.singletonMap("m", "http://maven.apache.org/POM/4.0.0"));
+        return new SAXReader(factory).read(new ByteArrayInputStream(pom.getBytes()));
+    }
+
+    private static Node selectSingleNode(Document pom, String path) {
+        Node result = pom.selectSingleNode(path);
+        if (result == null)
+            result = pom.selectSingleNode(path.replaceAll("/", "/m:"));
+        return result;
+    }
+
+    private static String selectSingleValue(Document dom, String path) {
+        Node node = selectSingleNode(dom, path);
+        return node != null ? ((Element)node).getTextTrim() : null;
+    }
+
+    private static class UnresolvableRepository extends MavenRepository {
+        @Override
+        protected Collection<PluginHistory> scanHudsonPlugins() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public TreeMap<VersionNumber, HudsonWar> getHudsonWar() {
+            return new TreeMap<VersionNumber, HudsonWar>();
+        }
+
+        @Override
+        protected File resolve(ArtifactCoordinates a, String type, String classifier) throws ArtifactResolutionException {
+            throw new ArtifactResolutionException("Not in this test: " + a, null);
+        }
+    }
+}
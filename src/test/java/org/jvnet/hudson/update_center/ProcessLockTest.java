@@ -0,0 +1,117 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProcessLockTest extends TestCase {
+    private File dir;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("locks").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        // shared locks are held until the JVM exits, so their files may not go away everywhere
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    public void testOnePerFile() throws Exception {
+        File f = new File(dir, "a.lock");
+        assertSame(ProcessLock.of(f), ProcessLock.of(new File(dir, "./a.lock")));
+        assertNotSame(ProcessLock.of(f), ProcessLock.of(new File(dir, "b.lock")));
+    }
+
+    public void testCallsTakeTurns() throws Exception {
+        final ProcessLock lock = ProcessLock.of(new File(dir, "a.lock"));
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger holders = new AtomicInteger();
+
+        Future<String> first = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return lock.call(new Callable<String>() {
+                    public String call() throws Exception {
+                        holders.incrementAndGet();
+                        entered.countDown();
+                        assertTrue(release.await(10, TimeUnit.SECONDS));
+                        holders.decrementAndGet();
+                        return "first";
+                    }
+                });
+            }
+        });
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        assertTrue(new File(dir, "a.lock").exists());
+
+        Future<String> second = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return lock.call(new Callable<String>() {
+                    public String call() {
+                        assertEquals(0, holders.get());
+                        return "second";
+                    }
+                });
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+
+        release.countDown();
+        assertEquals("first", first.get(10, TimeUnit.SECONDS));
+        assertEquals("second", second.get(10, TimeUnit.SECONDS));
+    }
+
+    public void testReentrant() throws Exception {
+        final ProcessLock lock = ProcessLock.of(new File(dir, "a.lock"));
+        assertEquals("inner", lock.call(new Callable<String>() {
+            public String call() throws Exception {
+                return lock.call(new Callable<String>() {
+                    public String call() {
+                        return "inner";
+                    }
+                });
+            }
+        }));
+
+        // and released afterwards, for other threads
+        assertEquals("other", executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return lock.call(new Callable<String>() {
+                    public String call() {
+                        return "other";
+                    }
+                });
+            }
+        }).get(10, TimeUnit.SECONDS));
+    }
+
+    public void testHoldShared() throws Exception {
+        File f = new File(dir, "a.lock");
+        assertFalse(ProcessLock.isUsed(f));
+        assertTrue(f.createNewFile());
+        assertFalse(ProcessLock.isUsed(f));
+
+        ProcessLock.holdShared(f);
+        assertTrue(ProcessLock.isUsed(f));
+        assertTrue(ProcessLock.isUsed(new File(dir, "./a.lock")));
+        ProcessLock.holdShared(f);
+        assertTrue(ProcessLock.isUsed(f));
+
+        assertFalse(ProcessLock.isUsed(new File(dir, "b.lock")));
+    }
+}
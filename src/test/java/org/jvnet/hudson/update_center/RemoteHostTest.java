@@ -0,0 +1,131 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.rmi.RemoteException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RemoteHostTest extends TestCase {
+    private final ManualClock clock = new ManualClock();
+    private final CircuitBreaker breaker = new CircuitBreaker("example.org", 4, 60000, clock);
+    /**
+     * Retries right away, as the delays are random and don't change what's being tested.
+     */
+    private final RemoteHost host = new RemoteHost("example.org",
+            new AdaptiveConcurrencyLimiter("example.org", 4, 1, 4, clock), breaker, 0);
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * A request that fails with the given exceptions in turn, then succeeds.
+     */
+    private Callable<String> request(final Exception... failures) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                int i = calls.getAndIncrement();
+                if (i < failures.length)
+                    throw failures[i];
+                return "ok";
+            }
+        };
+    }
+
+    public void testIsTransient() {
+        assertTrue(RemoteHost.isTransient(new SocketTimeoutException("Read timed out")));
+        assertTrue(RemoteHost.isTransient(new ConnectException("Connection refused")));
+        assertTrue(RemoteHost.isTransient(new RemoteException("SOAP call failed", new SocketTimeoutException("Read timed out"))));
+        assertTrue(RemoteHost.isTransient(new IOException("Server returned HTTP response code: 503 for URL: http://example.org/")));
+        assertTrue(RemoteHost.isTransient(new RemoteException("(502)Bad Gateway")));
+
+        assertFalse(RemoteHost.isTransient(new FileNotFoundException("http://example.org/missing")));
+        assertFalse(RemoteHost.isTransient(new IOException("Failed to transfer file: http://example.org/foo.hpi. Return code is: 401")));
+        assertFalse(RemoteHost.isTransient(new RemoteException("No page with that title")));
+        assertFalse(RemoteHost.isTransient(new IllegalStateException()));
+    }
+
+    public void testRetriesTransientFailures() throws Exception {
+        assertEquals("ok", host.call(request(new SocketTimeoutException(), new ConnectException())));
+        assertEquals(3, calls.get());
+        assertFalse(host.isUnavailable());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        SocketTimeoutException last = new SocketTimeoutException("last");
+        try {
+            host.call(request(new SocketTimeoutException(), new SocketTimeoutException(), last, last));
+            fail();
+        } catch (SocketTimeoutException e) {
+            assertSame(last, e);
+        }
+        assertEquals(RemoteHost.MAX_ATTEMPTS, calls.get());
+    }
+
+    public void testOtherFailuresAreNotRetried() throws Exception {
+        try {
+            host.call(request(new FileNotFoundException("missing")));
+            fail();
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertEquals(1, calls.get());
+
+        // and the rest is wrapped
+        calls.set(0);
+        try {
+            host.call(request(new IllegalStateException("bad")));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public void testOtherFailuresDontOpenTheBreaker() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            calls.set(0);
+            try {
+                host.call(request(new FileNotFoundException("missing")));
+                fail();
+            } catch (FileNotFoundException e) {
+                // expected
+            }
+        }
+        assertFalse(host.isUnavailable());
+    }
+
+    public void testBreakerOpens() throws Exception {
+        breaker.onFailure();
+        breaker.onFailure();
+        // the third attempt is refused, and the last failure is kept as the cause
+        SocketTimeoutException second = new SocketTimeoutException("second");
+        try {
+            host.call(request(new SocketTimeoutException(), second));
+            fail();
+        } catch (RemoteHost.CircuitOpenException e) {
+            assertSame(second, e.getCause());
+        }
+        assertEquals(2, calls.get());
+        assertTrue(host.isUnavailable());
+
+        // while it's open, the host isn't called at all
+        calls.set(0);
+        try {
+            host.call(request());
+            fail();
+        } catch (RemoteHost.CircuitOpenException e) {
+            assertNull(e.getCause());
+        }
+        assertEquals(0, calls.get());
+
+        // until it has cooled down
+        clock.advance(60000);
+        assertFalse(host.isUnavailable());
+        assertEquals("ok", host.call(request()));
+        assertEquals(1, calls.get());
+        assertFalse(host.isUnavailable());
+    }
+}
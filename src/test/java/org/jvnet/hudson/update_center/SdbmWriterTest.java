@@ -0,0 +1,153 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SdbmWriterTest extends TestCase {
+    private File base;
+
+    @Override
+    protected void setUp() throws Exception {
+        File f = File.createTempFile("sdbm", "");
+        f.delete();
+        base = f;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new File(base.getPath() + ".pag").delete();
+        new File(base.getPath() + ".dir").delete();
+    }
+
+    /**
+     * Something like the download redirects, enough of them to split pages over several levels.
+     */
+    private static Map<String,String> redirects(int n) {
+        Map<String,String> m = new LinkedHashMap<String,String>();
+        for (int i = 0; i < n; i++)
+            m.put("/download/plugins/plugin-" + i + "/",
+                    "/download/plugins/plugin-" + i + "/" + (i * 7 % 13) + "." + (i % 5) + "/plugin-" + i + ".hpi");
+        return m;
+    }
+
+    private void write(Map<String,String> pairs) throws IOException {
+        SdbmWriter w = new SdbmWriter();
+        for (Map.Entry<String,String> e : pairs.entrySet())
+            w.put(e.getKey(), e.getValue());
+        w.write(base);
+    }
+
+    public void testSinglePage() throws Exception {
+        Map<String,String> pairs = redirects(10);
+        write(pairs);
+        assertEquals(1024, new File(base.getPath() + ".pag").length());
+        assertEquals(0, new File(base.getPath() + ".dir").length());
+        assertLookups(pairs);
+    }
+
+    public void testSplitPages() throws Exception {
+        Map<String,String> pairs = redirects(1500);
+        write(pairs);
+        assertTrue(new File(base.getPath() + ".pag").length() > 100 * 1024);
+        assertEquals(4096, new File(base.getPath() + ".dir").length());
+        assertLookups(pairs);
+    }
+
+    /**
+     * The same pairs stored in the same order with Perl's SDBM_File, which is the same library:
+     * <pre>
+     * tie(my %h, "SDBM_File", "golden", O_RDWR|O_CREAT, 0644);
+     * for my $i (0..1499) { $h{"/download/plugins/plugin-$i/"} = "/download/plugins/plugin-$i/".(($i*7)%13).".".($i%5)."/plugin-$i.hpi"; }
+     * </pre>
+     */
+    public void testSameAsLibrary() throws Exception {
+        write(redirects(1500));
+        assertEquals("b83f85afd31eaa50b7647c532894ddc97175110b", sha1(".pag"));
+        assertEquals("d05320a3d89e24506130532f6345950331b0e598", sha1(".dir"));
+    }
+
+    public void testFirstValueWins() throws Exception {
+        SdbmWriter w = new SdbmWriter();
+        w.put("/a", "first");
+        w.put("/a", "second");
+        w.write(base);
+        Map<String,String> expected = new LinkedHashMap<String,String>();
+        expected.put("/a", "first");
+        assertLookups(expected);
+    }
+
+    public void testTooLong() throws Exception {
+        SdbmWriter w = new SdbmWriter();
+        try {
+            w.put("/a", new String(new char[1100]).replace('\0', 'x'));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private String sha1(String ext) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(Files.readAllBytes(new File(base.getPath() + ext).toPath()));
+        StringBuilder b = new StringBuilder();
+        for (byte d : digest)
+            b.append(String.format("%02x", d & 0xFF));
+        return b.toString();
+    }
+
+    private void assertLookups(Map<String,String> pairs) throws IOException {
+        byte[] dir = Files.readAllBytes(new File(base.getPath() + ".dir").toPath());
+        RandomAccessFile pag = new RandomAccessFile(new File(base.getPath() + ".pag"), "r");
+        try {
+            for (Map.Entry<String,String> e : pairs.entrySet())
+                assertEquals(e.getKey(), e.getValue(), fetch(dir, pag, e.getKey()));
+            assertNull(fetch(dir, pag, "/download/plugins/no-such-plugin/"));
+        } finally {
+            pag.close();
+        }
+    }
+
+    /**
+     * Looks up a key the way {@code sdbm_fetch} does, independently of the writer.
+     */
+    private static String fetch(byte[] dir, RandomAccessFile pag, String key) throws IOException {
+        byte[] k = key.getBytes("UTF-8");
+        int hash = 0;
+        for (byte b : k)
+            hash = b + 65599 * hash;
+
+        // getpage(): follow the split bits down the directory tree
+        long maxbno = dir.length * 8L;
+        int hbit = 0;
+        long dbit = 0;
+        while (dbit < maxbno && (dir[(int)(dbit / 8)] & (1 << (dbit % 8))) != 0)
+            dbit = 2 * dbit + ((hash & (1 << hbit++)) != 0 ? 2 : 1);
+        long pageNo = hash & ((1L << hbit) - 1);
+
+        byte[] page = new byte[1024];
+        if ((pageNo + 1) * 1024 <= pag.length()) {
+            pag.seek(pageNo * 1024);
+            pag.readFully(page);
+        }
+
+        int n = shortAt(page, 0);
+        for (int i = 1; i < n; i += 2) {
+            int keyEnd = i == 1 ? 1024 : shortAt(page, i - 1);
+            int keyStart = shortAt(page, i);
+            int valueStart = shortAt(page, i + 1);
+            if (new String(page, keyStart, keyEnd - keyStart, "UTF-8").equals(key))
+                return new String(page, valueStart, keyStart - valueStart, "UTF-8");
+        }
+        return null;
+    }
+
+    private static int shortAt(byte[] page, int i) {
+        return (page[2 * i] & 0xFF) | (page[2 * i + 1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,116 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+public class SegmentIndexTest extends TestCase {
+    private final List<PluginHistory> plugins = new ArrayList<PluginHistory>();
+
+    private final MavenRepository repository = new MavenRepository() {
+        @Override
+        protected Collection<PluginHistory> scanHudsonPlugins() {
+            return plugins;
+        }
+
+        @Override
+        public TreeMap<VersionNumber, HudsonWar> getHudsonWar() {
+            return new TreeMap<VersionNumber, HudsonWar>();
+        }
+
+        @Override
+        protected File resolve(ArtifactCoordinates a, String type, String classifier) {
+            throw new AssertionError("Nothing should be resolved: " + a);
+        }
+    };
+
+    private final Segment current = Segment.parse("current:::exclude");
+    private final Segment stable = Segment.parse("stable-1.500:1.500.999:1.500.999");
+    private final Segment experimental = Segment.parse("experimental:::only");
+
+    /**
+     * Adds a plugin whose releases require the given core versions, alternating version and core version.
+     */
+    private void plugin(String artifactId, String... versionAndCore) throws Exception {
+        PluginHistory h = new PluginHistory(artifactId);
+        h.groupId.add("org.jenkins-ci.plugins");
+        for (int i=0; i<versionAndCore.length; i+=2) {
+            HPI hpi = new HPI(repository, h, new ArtifactCoordinates("org.jenkins-ci.plugins", artifactId, versionAndCore[i], "hpi", null));
+            // Jenkins-Version, so that the manifest never has to be read
+            String[] values = new String[8];
+            values[2] = versionAndCore[i+1];
+            hpi.restore(1, new ManifestSummary(values), null);
+            h.addArtifact(hpi);
+        }
+        plugins.add(h);
+    }
+
+    private SegmentIndex index() throws Exception {
+        return new SegmentIndex(repository, Arrays.asList(current, stable, experimental));
+    }
+
+    private static List<String> versions(PluginHistory h) {
+        List<String> r = new ArrayList<String>();
+        if (h!=null)
+            for (HPI hpi : h.artifacts.values())
+                r.add(hpi.version);
+        return r;
+    }
+
+    public void testMembership() throws Exception {
+        plugin("foo", "1.0", "1.480", "1.1", "1.500.1", "2.0", "1.600", "2.1-beta-1", "1.600");
+        SegmentIndex index = index();
+
+        assertEquals(Arrays.asList("2.0", "1.1", "1.0"), versions(index.getHistory("foo", current)));
+        assertEquals(Arrays.asList("1.1", "1.0"), versions(index.getHistory("foo", stable)));
+        assertEquals(Arrays.asList("2.1-beta-1"), versions(index.getHistory("foo", experimental)));
+    }
+
+    public void testPluginsWithoutReleasesInSegmentAreLeftOut() throws Exception {
+        plugin("old", "1.0", "1.400");
+        plugin("new", "1.0", "1.600");
+        plugin("beta", "0.1-alpha-1", "1.400");
+        SegmentIndex index = index();
+
+        assertNull(index.getHistory("new", stable));
+        assertNull(index.getHistory("old", experimental));
+        assertNull(index.getHistory("unknown", current));
+
+        assertEquals(Arrays.asList("old", "new"), names(index.listHudsonPlugins(current)));
+        assertEquals(Arrays.asList("old"), names(index.listHudsonPlugins(stable)));
+        assertEquals(Arrays.asList("beta"), names(index.listHudsonPlugins(experimental)));
+    }
+
+    public void testHistoriesAreCopies() throws Exception {
+        plugin("foo", "1.0", "1.400", "2.0", "1.600");
+        SegmentIndex index = index();
+
+        PluginHistory h = index.getHistory("foo", stable);
+        assertNotSame(plugins.get(0), h);
+        assertEquals(plugins.get(0).groupId, h.groupId);
+        assertEquals(2, plugins.get(0).artifacts.size());
+    }
+
+    public void testUnknownSegment() throws Exception {
+        plugin("foo", "1.0", "1.400");
+        try {
+            index().getHistory("foo", Segment.parse("other:::"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static List<String> names(Collection<PluginHistory> plugins) {
+        List<String> r = new ArrayList<String>();
+        for (PluginHistory h : plugins)
+            r.add(h.artifactId);
+        return r;
+    }
+}
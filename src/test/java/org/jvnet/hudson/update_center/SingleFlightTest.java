@@ -0,0 +1,166 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest extends TestCase {
+    private final SingleFlight<String,String> flight = new SingleFlight<String,String>(2);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Computes "value of KEY", counting calls, once released.
+     */
+    private static class Blocked implements Callable<String> {
+        final String key;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        volatile Exception failure;
+
+        Blocked(String key) {
+            this.key = key;
+        }
+
+        public String call() throws Exception {
+            calls.incrementAndGet();
+            started.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            if (failure != null)
+                throw failure;
+            return "value of " + key;
+        }
+    }
+
+    private Future<String> getAsync(final String key, final Callable<String> c) {
+        return executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return flight.get(key, c);
+            }
+        });
+    }
+
+    private String get(final String key, final AtomicInteger calls) throws Exception {
+        return flight.get(key, new Callable<String>() {
+            public String call() {
+                calls.incrementAndGet();
+                return "value of " + key;
+            }
+        });
+    }
+
+    public void testConcurrentCallersShare() throws Exception {
+        Blocked c = new Blocked("a");
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        results.add(getAsync("a", c));
+        assertTrue(c.started.await(10, TimeUnit.SECONDS));
+
+        // these arrive while the first computation is blocked, with callables that must never run
+        for (int i = 0; i < 16; i++) {
+            results.add(getAsync("a", new Callable<String>() {
+                public String call() {
+                    throw new AssertionError("Should have waited for the computation in flight");
+                }
+            }));
+        }
+        Thread.sleep(100);
+        for (Future<String> f : results)
+            assertFalse(f.isDone());
+
+        c.release.countDown();
+        for (Future<String> f : results)
+            assertEquals("value of a", f.get(10, TimeUnit.SECONDS));
+        assertEquals(1, c.calls.get());
+    }
+
+    public void testOtherKeysDontWait() throws Exception {
+        Blocked a = new Blocked("a");
+        Future<String> f = getAsync("a", a);
+        assertTrue(a.started.await(10, TimeUnit.SECONDS));
+
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("value of b", get("b", calls));
+        assertFalse(f.isDone());
+
+        a.release.countDown();
+        assertEquals("value of a", f.get(10, TimeUnit.SECONDS));
+    }
+
+    public void testFailuresAreSharedButNotRemembered() throws Exception {
+        Blocked c = new Blocked("a");
+        c.failure = new IOException("broken");
+        Future<String> first = getAsync("a", c);
+        assertTrue(c.started.await(10, TimeUnit.SECONDS));
+        Future<String> second = getAsync("a", new Blocked("a"));
+        Thread.sleep(100);
+
+        c.release.countDown();
+        for (Future<String> f : Arrays.asList(first, second)) {
+            try {
+                f.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                // the cause itself, not wrapped
+                assertSame(c.failure, e.getCause());
+            }
+        }
+        assertEquals(1, c.calls.get());
+
+        // the next caller tries again
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("value of a", get("a", calls));
+        assertEquals(1, calls.get());
+    }
+
+    public void testResultsAreRemembered() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("value of a", get("a", calls));
+        assertEquals("value of a", get("a", calls));
+        assertEquals(1, calls.get());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        AtomicInteger a = new AtomicInteger(), b = new AtomicInteger(), c = new AtomicInteger();
+        get("a", a);
+        get("b", b);
+        get("a", a);    // now b is the least recently used
+        get("c", c);    // which goes, as there's room for two
+
+        get("a", a);
+        get("c", c);
+        assertEquals(1, a.get());
+        assertEquals(1, c.get());
+
+        get("b", b);
+        assertEquals(2, b.get());
+    }
+
+    public void testNullIsNotRemembered() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> c = new Callable<String>() {
+            public String call() {
+                calls.incrementAndGet();
+                return null;
+            }
+        };
+        assertNull(flight.get("a", c));
+        assertNull(flight.get("a", c));
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,154 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SplicedEntriesTest extends TestCase {
+    private final SplicedEntries entries = new SplicedEntries();
+    private final List<SplicedEntries.Entry> added = new ArrayList<SplicedEntries.Entry>();
+
+    /**
+     * A plugin entry like {@link Plugin#toJSON()} renders, with what JSON has to escape.
+     */
+    private static JSONObject plugin(String name, String... dependencies) {
+        JSONObject o = new JSONObject();
+        o.put("name", name);
+        o.put("version", "1.0");
+        o.put("title", "The \"" + name + "\" plugin \u00e9\u4e2d");
+        o.put("excerpt", "Line one\nline two\t<b>bold</b> \\ <a href=\"x\">link</a></script>");
+        o.put("buildDate", "Jan 01, 2015");
+        o.put("labels", new JSONArray());
+        JSONArray deps = new JSONArray();
+        for (String d : dependencies) {
+            JSONObject dep = new JSONObject();
+            dep.put("name", d);
+            dep.put("optional", false);
+            dep.put("version", "2.0");
+            deps.add(dep);
+        }
+        o.put("dependencies", deps);
+        return o;
+    }
+
+    /**
+     * The update center of one segment, with the plugins in place or spliced.
+     */
+    private JSONObject catalog(String id, boolean spliced) {
+        JSONObject root = new JSONObject();
+        root.put("updateCenterVersion", "1");
+        root.put("id", id);
+        JSONObject core = new JSONObject();
+        core.put("name", "core");
+        core.put("version", "1.500");
+        root.put("core", core);
+
+        JSONObject plugins = new JSONObject();
+        String[] names = {"zeta", "alpha", "mid"};
+        for (int i = 0; i < names.length; i++) {
+            JSONObject p = plugin(names[i], i == 0 ? new String[0] : new String[] {"zeta"});
+            if (!spliced) {
+                plugins.put(names[i], p);
+            } else {
+                // the segments share entries, like plugins rendered from the same inputs do
+                if (added.size() <= i)
+                    added.add(entries.add(p));
+                plugins.put(names[i], added.get(i).getPlaceholder());
+            }
+        }
+        root.put("plugins", plugins);
+        root.put("connectionCheckUrl", "http://www.google.com/");
+        return root;
+    }
+
+    private static String canonical(JSONObject o) {
+        StringWriter w = new StringWriter();
+        o.writeCanonical(w);
+        return w.toString();
+    }
+
+    private String splicedCanonical(JSONObject o) throws Exception {
+        StringWriter w = new StringWriter();
+        entries.writeCanonical(o, w);
+        return w.toString();
+    }
+
+    public void testSameAsInPlace() throws Exception {
+        for (String id : new String[] {"default", "stable"}) {
+            JSONObject plain = catalog(id, false);
+            JSONObject spliced = catalog(id, true);
+            assertFalse(spliced.toString().contains("\"excerpt\""));
+
+            assertEquals(plain.toString(), entries.toString(spliced));
+            assertEquals(canonical(plain), splicedCanonical(spliced));
+        }
+        // and again, now that the entries only have their serialized forms left
+        assertEquals(catalog("default", false).toString(), entries.toString(catalog("default", true)));
+        assertEquals(canonical(catalog("default", false)), splicedCanonical(catalog("default", true)));
+    }
+
+    public void testCanonicalFirst() throws Exception {
+        JSONObject spliced = catalog("default", true);
+        assertEquals(canonical(catalog("default", false)), splicedCanonical(spliced));
+        assertEquals(catalog("default", false).toString(), entries.toString(spliced));
+    }
+
+    /**
+     * Signs with a throwaway key pair, whose self-signed certificate doesn't chain up to any root.
+     */
+    public void testSignature() throws Exception {
+        File key = resource("test-signer.key");
+        File cert = resource("test-signer.crt");
+        File dumped = File.createTempFile("canonical", ".json");
+        try {
+            Signer signer = new Signer();
+            signer.privateKey = key;
+            signer.certificates.add(cert);
+            signer.canonical = dumped;
+
+            JSONObject plain = catalog("default", false);
+            String expected = canonical(plain);
+            JSONObject spliced = catalog("default", true);
+            JSONObject signature = signer.sign(spliced, entries).getJSONObject("signature");
+
+            // what was signed is the catalog with the entries in place
+            assertEquals(expected, new String(Files.readAllBytes(dumped.toPath()), "UTF-8"));
+            Signature verifier = Signature.getInstance("SHA1withRSA");
+            verifier.initVerify(loadCertificate(cert).getPublicKey());
+            verifier.update(expected.getBytes("UTF-8"));
+            assertTrue(verifier.verify(Base64.decodeBase64(signature.getString("correct_signature").getBytes("US-ASCII"))));
+
+            // RSA signatures are deterministic, so signing in place must give the very same ones
+            signer.canonical = null;
+            JSONObject inPlace = signer.sign(plain).getJSONObject("signature");
+            for (String field : new String[] {"digest", "signature", "correct_digest", "correct_signature"})
+                assertEquals(field, inPlace.getString(field), signature.getString(field));
+        } finally {
+            dumped.delete();
+        }
+    }
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getResource(name).toURI());
+    }
+
+    private static X509Certificate loadCertificate(File f) throws Exception {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            return (X509Certificate) CertificateFactory.getInstance("X509").generateCertificate(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.jvnet.hudson.update_center;
+
+import hudson.util.VersionNumber;
+import junit.framework.TestCase;
+
+public class VersionKeyTest extends TestCase {
+
+    public void testPlainVersionsArePacked() {
+        assertTrue(VersionKey.of("1").isPacked());
+        assertTrue(VersionKey.of("1.480.3").isPacked());
+        assertTrue(VersionKey.of("2.0.1.12").isPacked());
+
+        assertFalse(VersionKey.of("1.0-beta-1").isPacked());
+        assertFalse(VersionKey.of("1.2.3.4.5").isPacked());
+        assertFalse(VersionKey.of("1..2").isPacked());
+        assertFalse(VersionKey.of("1.2.").isPacked());
+        assertFalse(VersionKey.of("1.70000").isPacked());
+    }
+
+    public void testOrderMatchesVersionNumber() {
+        String[] versions = {
+                "1", "1.0", "1.0.0", "1.0.1", "1.2", "1.10", "1.395", "1.398", "1.480.3", "2.0",
+                "1.0-alpha-1", "1.0-beta-2", "1.0-SNAPSHOT", "1.2.3.4.5", "1.2.0.0.0", "65535.1", "0.9"
+        };
+        for (String a : versions) {
+            for (String b : versions) {
+                int expected = Integer.signum(new VersionNumber(a).compareTo(new VersionNumber(b)));
+                int actual = Integer.signum(VersionKey.of(a).compareTo(VersionKey.of(b)));
+                assertEquals(a + " vs " + b, expected, actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class VersionRoutesTest extends TestCase {
+    /**
+     * Like generate.sh does for two baselines, plus segments that aren't routed to.
+     */
+    private static final List<Segment> SEGMENTS = Arrays.asList(
+            Segment.parse("1.565:1.565.999:2.999"),
+            Segment.parse("stable-1.565:1.565.999:1.565.999"),
+            Segment.parse("1.554:1.554.999:2.999"),
+            Segment.parse("stable-1.554:1.554.999:1.565.999"),
+            Segment.parse("experimental::2.999:only"),
+            Segment.parse("current::2.999"));
+
+    private static final List<String> CORE = Arrays.asList(
+            "1.550", "1.554", "1.554.1", "1.554.2", "1.565", "1.565.1", "1.570", "2.0", "2.1");
+
+    public void testRoutes() {
+        Map<String,String> routes = new VersionRoutes(SEGMENTS, CORE).getRoutes();
+
+        // weeklies go to the first segment whose cap covers them
+        assertEquals("1.554", routes.get("1.0"));
+        assertEquals("1.554", routes.get("1.553"));
+        assertEquals("1.554", routes.get("1.554"));
+        assertEquals("1.565", routes.get("1.555"));
+        assertEquals("1.565", routes.get("1.565"));
+
+        // LTS lines go to their stable segment, or else where the weekly goes
+        assertEquals("stable-1.554", routes.get("1.554.x"));
+        assertEquals("stable-1.565", routes.get("1.565.x"));
+        assertEquals("1.554", routes.get("1.553.x"));
+        assertEquals("1.565", routes.get("1.560.x"));
+
+        // newer than every cap: left to the rules that send everything else to current
+        assertNull(routes.get("1.566"));
+        assertNull(routes.get("1.566.x"));
+        assertNull(routes.get("1.570"));
+        assertNull(routes.get("2.0"));
+        assertNull(routes.get("2.1.x"));
+
+        // every line up to the newest one, in order, and nothing beyond
+        assertNull(routes.get("1.571"));
+        assertEquals(2 * 566, routes.size());
+        List<String> keys = new ArrayList<String>(routes.keySet());
+        assertEquals(Arrays.asList("1.0", "1.0.x", "1.1", "1.1.x"), keys.subList(0, 4));
+        assertEquals(Arrays.asList("1.565", "1.565.x"), keys.subList(keys.size() - 2, keys.size()));
+    }
+
+    public void testOnlyUncappedSegments() {
+        List<Segment> segments = Arrays.asList(Segment.parse("current::2.999"), Segment.parse("experimental:::only"));
+        assertTrue(new VersionRoutes(segments, CORE).getRoutes().isEmpty());
+    }
+
+    public void testUnparseableVersionsAreIgnored() {
+        Map<String,String> routes = new VersionRoutes(SEGMENTS, Arrays.asList("1.2", "foo", "")).getRoutes();
+        assertEquals(Arrays.asList("1.0", "1.0.x", "1.1", "1.1.x", "1.2", "1.2.x"), new ArrayList<String>(routes.keySet()));
+    }
+
+    public void testWrite() throws Exception {
+        File dir = Files.createTempDirectory("routes").toFile();
+        try {
+            VersionRoutes r = new VersionRoutes(SEGMENTS, Arrays.asList("1.554.1", "1.555"));
+            r.write(dir, "versions");
+
+            List<String> txt = Files.readAllLines(new File(dir, "versions.txt").toPath());
+            assertEquals(Arrays.asList("# GENERATED. DO NOT MODIFY."), txt.subList(0, 1));
+            assertEquals("1.0 1.554", txt.get(1));
+            assertEquals("1.0.x 1.554", txt.get(2));
+            assertTrue(txt.contains("1.554.x stable-1.554"));
+            assertEquals("1.555.x 1.565", txt.get(txt.size() - 1));
+            assertEquals(1 + r.getRoutes().size(), txt.size());
+
+            assertTrue(new File(dir, "versions.pag").length() > 0);
+            assertTrue(new File(dir, "versions.dir").exists());
+
+            String htaccess = new String(Files.readAllBytes(new File(dir, "versions.htaccess").toPath()), "UTF-8");
+            assertTrue(htaccess, htaccess.contains("RewriteMap versions dbm=sdbm:"));
+            assertTrue(htaccess, htaccess.contains("RewriteCond ${versions:%1.x} ^(.+)$"));
+            assertTrue(htaccess, htaccess.contains("RewriteCond ${versions:%1} ^(.+)$"));
+            assertTrue(htaccess, htaccess.contains("RewriteRule ^(update\\-center\\.json(?:\\.html)?)$ /%1/$1? [NC,L,R=301]"));
+            // the LTS rule must come first, or 1.554.1 would be looked up as 1.554
+            assertTrue(htaccess.indexOf("%1.x}") < htaccess.indexOf("%1}"));
+        } finally {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+}
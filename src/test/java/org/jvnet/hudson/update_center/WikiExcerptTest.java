@@ -0,0 +1,69 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class WikiExcerptTest extends TestCase {
+
+    public void testNoExcerpt() {
+        assertNull(WikiExcerpt.toHtml("h1. Foo"));
+        assertNull(WikiExcerpt.toHtml("{excerpt}never closed"));
+        assertNull(WikiExcerpt.toHtml("{excerpt:other}foo{excerpt}"));
+        assertNull(WikiExcerpt.toHtml("{excerpt}{excerpt}"));
+    }
+
+    public void testVariants() {
+        assertEquals("foo", WikiExcerpt.toHtml("x {excerpt}foo{excerpt} y"));
+        assertEquals("foo", WikiExcerpt.toHtml("{excerpt:hidden}foo{excerpt}"));
+        assertEquals("foo", WikiExcerpt.toHtml("{excerpt:hidden=true} \n foo{excerpt}"));
+        assertEquals("a b c", WikiExcerpt.toHtml("{excerpt}a\r\nb\nc{excerpt}"));
+    }
+
+    public void testMacrosAreIgnored() {
+        assertNull(WikiExcerpt.toHtml("{excerpt}{info}Superseded{info}{excerpt}"));
+        assertNull(WikiExcerpt.toHtml("{excerpt}\n  {info}Superseded{info}{excerpt}"));
+    }
+
+    public void testEscapingAndLinks() {
+        assertEquals("Uses &lt;b&gt; &amp; <a href='http://x/?a=1&amp;b=2'>the thing</a>!",
+                WikiExcerpt.toHtml("{excerpt}Uses <b> & [the thing|http://x/?a=1&b=2]!{excerpt}"));
+        assertEquals("<a href='u'>t</a> and <a href='v'>s</a>",
+                WikiExcerpt.toHtml("{excerpt}[t|u|tip] and [s|v]{excerpt}"));
+        assertEquals("[not a link] [|u] [t|u", WikiExcerpt.toHtml("{excerpt}[not a link] [|u] [t|u{excerpt}"));
+    }
+
+    /**
+     * Compares with the regular expressions this replaces, on random markup.
+     */
+    public void testSameAsRegularExpressions() {
+        String[] tokens = {"{excerpt}", "{excerpt:hidden}", "{excerpt:hidden=true}", "{info}", "[", "]", "|",
+                "a", "b c", " ", "\n", "\r\n", "\r", "<", "&", "\u00e9", "\u20ac"};
+        Random r = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder b = new StringBuilder();
+            int len = r.nextInt(30);
+            for (int i = 0; i < len; i++)
+                b.append(tokens[r.nextInt(tokens.length)]);
+            String content = b.toString();
+            assertEquals(content, legacy(content), WikiExcerpt.toHtml(content));
+        }
+    }
+
+    private static String legacy(String content) {
+        Matcher m = EXCERPT_PATTERN.matcher(content);
+        if (!m.find())
+            return null;
+        String excerpt = StringEscapeUtils.escapeHtml(m.group(1));
+        String oneLiner = NEWLINE_PATTERN.matcher(excerpt).replaceAll(" ");
+        excerpt = HYPERLINK_PATTERN.matcher(oneLiner).replaceAll("<a href='$2'>$1</a>");
+        return excerpt.startsWith("{") ? null : excerpt;
+    }
+
+    private static final Pattern EXCERPT_PATTERN = Pattern.compile("\\{excerpt(?::hidden(?:=true)?)?\\}\\s*(.+)\\{excerpt\\}", Pattern.DOTALL);
+    private static final Pattern HYPERLINK_PATTERN = Pattern.compile("\\[([^|\\]]+)\\|([^|\\]]+)(|([^]])+)?\\]");
+    private static final Pattern NEWLINE_PATTERN = Pattern.compile("(?:\\r\\n|\\n)");
+}
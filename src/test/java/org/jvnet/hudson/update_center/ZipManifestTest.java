@@ -0,0 +1,131 @@
+package org.jvnet.hudson.update_center;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ZipManifestTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("manifest", ".jar");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testDeflated() throws Exception {
+        write(ZipEntry.DEFLATED, null, 1000, null);
+        assertSameAsJarFile();
+    }
+
+    public void testStored() throws Exception {
+        write(ZipEntry.STORED, null, 10, null);
+        assertSameAsJarFile();
+    }
+
+    public void testComment() throws Exception {
+        write(ZipEntry.DEFLATED, null, 10, "PK\u0005\u0006 looks like the end, but isn't");
+        assertSameAsJarFile();
+    }
+
+    public void testExtendedTimestamp() throws Exception {
+        write(ZipEntry.DEFLATED, FileTime.fromMillis(1234567890000L), 10, null);
+        assertSameAsJarFile();
+        assertEquals(1234567890000L, ZipManifest.read(file).time);
+    }
+
+    public void testNoManifest() throws Exception {
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        zip.putNextEntry(new ZipEntry("a.txt"));
+        zip.close();
+        try {
+            ZipManifest.read(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testNotAZip() throws Exception {
+        FileOutputStream o = new FileOutputStream(file);
+        o.write("not a zip file at all".getBytes("US-ASCII"));
+        o.close();
+        try {
+            ZipManifest.read(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void assertSameAsJarFile() throws IOException {
+        ZipManifest m = ZipManifest.read(file);
+        assertNotNull(m);
+        JarFile jar = new JarFile(file);
+        try {
+            assertEquals(jar.getManifest(), m.manifest);
+            assertEquals(jar.getEntry("META-INF/MANIFEST.MF").getTime(), m.time);
+        } finally {
+            jar.close();
+        }
+    }
+
+    /**
+     * Writes a jar with some entries on both sides of the manifest, the way the manifest isn't necessarily first.
+     */
+    private void write(int method, FileTime time, int classes, String comment) throws IOException {
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        mf.getMainAttributes().putValue("Short-Name", "foo");
+        mf.getMainAttributes().putValue("Plugin-Dependencies", "bar:1.0,baz:2.0;resolution:=optional");
+        Attributes a = new Attributes();
+        a.putValue("SHA-256-Digest", "abc=");
+        mf.getEntries().put("foo/Bar.class", a);
+
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            if (comment!=null)
+                zip.setComment(comment);
+            for (int i=0; i<classes; i++) {
+                put(zip, "foo/C"+i+".class", new byte[] {(byte)i, 1, 2, 3}, method, null);
+                if (i==classes/2) {
+                    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                    mf.write(buf);
+                    put(zip, "META-INF/MANIFEST.MF", buf.toByteArray(), method, time);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] data, int method, FileTime time) throws IOException {
+        ZipEntry e = new ZipEntry(name);
+        e.setMethod(method);
+        if (method==ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            e.setCrc(crc.getValue());
+            e.setSize(data.length);
+        }
+        if (time!=null)
+            e.setLastModifiedTime(time);
+        zip.putNextEntry(e);
+        zip.write(data);
+        zip.closeEntry();
+    }
+}